@@ -21,8 +21,7 @@ import net.mcreator.ui.init.*;
 import javax.swing.*;
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class DeepSeekPlugin extends JavaPlugin {
@@ -39,7 +38,7 @@ public class DeepSeekPlugin extends JavaPlugin {
     private ReportGenerator reportGenerator;
     private PluginLoader pluginLoader;
     private CodeGenerator codeGenerator;
-    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> monthlyReport;
 
     public DeepSeekPlugin(Plugin plugin) {
         super(plugin);
@@ -68,6 +67,11 @@ public class DeepSeekPlugin extends JavaPlugin {
         this.historyManager = new ConversationHistory();
         this.apiClient = new DeepSeekClient(apiKeyManager, settingsManager);
         this.module = new DeepSeekModule(apiClient, historyManager, settingsManager);
+
+        // Precalentar la conexión con la API mientras MCreator termina de cargar
+        if (!settingsManager.isOfflineModeEnabled()) {
+            apiClient.warmUpConnection();
+        }
     }
 
     private void initializeAdvancedComponents() {
@@ -82,12 +86,11 @@ public class DeepSeekPlugin extends JavaPlugin {
         scheduleMonthlyReport();
 
         // Inicializar generador de código
-        this.codeGenerator = new CodeGenerator(null); // Se actualizará cuando se cargue el workspace
+        // Se actualizará cuando se cargue el workspace
+        this.codeGenerator = new CodeGenerator(null, apiClient, settingsManager);
     }
 
     private void scheduleMonthlyReport() {
-        scheduler = Executors.newScheduledThreadPool(1);
-
         // Calcular tiempo hasta el próximo día 1 a las 9:00 AM
         LocalDateTime now = LocalDateTime.now();
         LocalDateTime nextReport = now.withDayOfMonth(1).plusMonths(1).withHour(9).withMinute(0);
@@ -95,7 +98,7 @@ public class DeepSeekPlugin extends JavaPlugin {
         long initialDelay = Duration.between(now, nextReport).toMillis();
         long period = TimeUnit.DAYS.toMillis(30); // Aproximadamente un mes
 
-        scheduler.scheduleAtFixedRate(() -> {
+        monthlyReport = TaskExecutor.getInstance().group("reports").scheduleAtFixedRate(() -> {
             try {
                 reportGenerator.sendMonthlyReport();
             } catch (Exception e) {
@@ -108,7 +111,10 @@ public class DeepSeekPlugin extends JavaPlugin {
         PluginLogger.log("MCreator cargado, inicializando interfaz...");
 
         // Actualizar generador de código con el workspace
-        this.codeGenerator = new CodeGenerator(mcreator.getWorkspace());
+        this.codeGenerator = new CodeGenerator(mcreator.getWorkspace(), apiClient, settingsManager);
+
+        // El resumen del workspace forma parte del prefijo estable de los prompts
+        apiClient.getPromptAssembler().setWorkspaceSummary(new MCreatorWorkspace(mcreator.getWorkspace()).describe());
 
         // Verificar si es la primera ejecución
         if (isFirstRun()) {
@@ -185,18 +191,14 @@ public class DeepSeekPlugin extends JavaPlugin {
             apiClient.shutdown();
         }
 
-        // Apagar el scheduler de reportes
-        if (scheduler != null) {
-            scheduler.shutdown();
-            try {
-                if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                    scheduler.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                scheduler.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
+        // Cerrar conexiones HTTP compartidas
+        HttpRuntime.getInstance().shutdown();
+
+        // Cancelar el reporte programado y detener los hilos de tareas compartidos
+        if (monthlyReport != null) {
+            monthlyReport.cancel(false);
         }
+        TaskExecutor.getInstance().shutdown();
 
         // Guardar historial
         if (historyManager != null) {
@@ -0,0 +1,46 @@
+package es.furynocturntv.mcreator.deepseek.api;
+
+import java.io.IOException;
+
+/**
+ * Error HTTP devuelto por la API de DeepSeek.
+ * Conserva el código de estado y el Retry-After para que la política de reintentos
+ * pueda decidir si merece la pena repetir la solicitud.
+ */
+public class ApiException extends IOException {
+    private final int statusCode;
+    private final long retryAfterMillis;
+
+    public ApiException(int statusCode, String message) {
+        this(statusCode, message, -1);
+    }
+
+    /**
+     * @param statusCode Código HTTP de la respuesta
+     * @param message Descripción del error
+     * @param retryAfterMillis Espera pedida por el servidor, o -1 si no la indicó
+     */
+    public ApiException(int statusCode, String message, long retryAfterMillis) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Indica si el error es transitorio (límite de tasa o fallo temporal del servidor)
+     */
+    public boolean isTransient() {
+        return switch (statusCode) {
+            case 408, 429, 500, 502, 503, 504 -> true;
+            default -> false;
+        };
+    }
+}
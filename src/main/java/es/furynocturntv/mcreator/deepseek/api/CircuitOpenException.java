@@ -0,0 +1,32 @@
+package es.furynocturntv.mcreator.deepseek.api;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * La solicitud se rechazó sin enviarse porque el cortocircuito del backend está abierto.
+ * No se reintenta: el backend ya ha demostrado estar caído o saturado.
+ */
+public class CircuitOpenException extends IOException {
+    private final String backend;
+    private final long retryInMillis;
+
+    /**
+     * @param backend Nombre del cortocircuito
+     * @param retryInMillis Tiempo hasta la siguiente llamada de prueba
+     */
+    public CircuitOpenException(String backend, long retryInMillis) {
+        super("Backend " + backend + " is unavailable (circuit open, next probe in "
+                + TimeUnit.MILLISECONDS.toSeconds(retryInMillis) + " s)");
+        this.backend = backend;
+        this.retryInMillis = retryInMillis;
+    }
+
+    public String getBackend() {
+        return backend;
+    }
+
+    public long getRetryInMillis() {
+        return retryInMillis;
+    }
+}
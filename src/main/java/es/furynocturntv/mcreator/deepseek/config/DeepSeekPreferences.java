@@ -26,6 +26,22 @@ public class DeepSeekPreferences {
     private static final String TEMPERATURE = "temperature";
     private static final String TOP_P = "top_p";
     private static final String RATE_LIMIT = "rate_limit";
+    private static final String RATE_LIMIT_BURST = "rate_limit_burst";
+    private static final String MAX_RETRIES = "max_retries";
+    private static final String LOCAL_TIMEOUT = "local_timeout";
+    private static final String HTTP_MAX_IDLE_CONNECTIONS = "http_max_idle_connections";
+    private static final String HTTP_KEEP_ALIVE = "http_keep_alive";
+    private static final String TRIM_LONG_PROMPTS = "trim_long_prompts";
+    private static final String CONTEXT_TOKEN_BUDGET = "context_token_budget";
+    private static final String HEDGING_ENABLED = "hedging_enabled";
+    private static final String HEDGE_PERCENTILE = "hedge_percentile";
+    private static final String MAX_CONCURRENT_REQUESTS = "max_concurrent_requests";
+    private static final String API_BASE_URL = "api_base_url";
+    private static final String LOCAL_REPLICAS = "local_replicas";
+    private static final String LOCAL_MEMORY_BUDGET_MB = "local_memory_budget_mb";
+    private static final String LOCAL_CPU_THREADS = "local_cpu_threads";
+    private static final String LOCAL_IDLE_UNLOAD_MINUTES = "local_idle_unload_minutes";
+    private static final String LOCAL_PARALLEL_SLOTS = "local_parallel_slots";
     private static final String LOCAL_MODELS = "local_models";
     private static final String FIRST_RUN = "first_run";
 
@@ -158,6 +174,134 @@ public class DeepSeekPreferences {
         saveIntPreference(RATE_LIMIT, delayMs);
     }
 
+    public int getRateLimitBurst() {
+        return getIntPreference(RATE_LIMIT_BURST, 3);
+    }
+
+    public void setRateLimitBurst(int burst) {
+        saveIntPreference(RATE_LIMIT_BURST, burst);
+    }
+
+    public int getMaxRetries() {
+        return getIntPreference(MAX_RETRIES, 3);
+    }
+
+    public void setMaxRetries(int retries) {
+        saveIntPreference(MAX_RETRIES, retries);
+    }
+
+    public int getLocalModelTimeout() {
+        return getIntPreference(LOCAL_TIMEOUT, 300);
+    }
+
+    public void setLocalModelTimeout(int seconds) {
+        saveIntPreference(LOCAL_TIMEOUT, seconds);
+    }
+
+    public int getHttpMaxIdleConnections() {
+        return getIntPreference(HTTP_MAX_IDLE_CONNECTIONS, 8);
+    }
+
+    public void setHttpMaxIdleConnections(int connections) {
+        saveIntPreference(HTTP_MAX_IDLE_CONNECTIONS, connections);
+    }
+
+    public int getHttpKeepAliveSeconds() {
+        return getIntPreference(HTTP_KEEP_ALIVE, 300);
+    }
+
+    public void setHttpKeepAliveSeconds(int seconds) {
+        saveIntPreference(HTTP_KEEP_ALIVE, seconds);
+    }
+
+    public boolean isTrimLongPromptsEnabled() {
+        return getBooleanPreference(TRIM_LONG_PROMPTS, false);
+    }
+
+    public void setTrimLongPromptsEnabled(boolean enabled) {
+        saveBooleanPreference(TRIM_LONG_PROMPTS, enabled);
+    }
+
+    public int getContextTokenBudget() {
+        return getIntPreference(CONTEXT_TOKEN_BUDGET, 4000);
+    }
+
+    public void setContextTokenBudget(int tokens) {
+        saveIntPreference(CONTEXT_TOKEN_BUDGET, tokens);
+    }
+
+    public boolean isHedgingEnabled() {
+        return getBooleanPreference(HEDGING_ENABLED, true);
+    }
+
+    public void setHedgingEnabled(boolean enabled) {
+        saveBooleanPreference(HEDGING_ENABLED, enabled);
+    }
+
+    public int getHedgePercentile() {
+        return getIntPreference(HEDGE_PERCENTILE, 95);
+    }
+
+    public void setHedgePercentile(int percentile) {
+        saveIntPreference(HEDGE_PERCENTILE, percentile);
+    }
+
+    public int getMaxConcurrentRequests() {
+        return getIntPreference(MAX_CONCURRENT_REQUESTS, 4);
+    }
+
+    public void setMaxConcurrentRequests(int requests) {
+        saveIntPreference(MAX_CONCURRENT_REQUESTS, requests);
+    }
+
+    public String getApiBaseUrl() {
+        return getPreference(API_BASE_URL, "");
+    }
+
+    public void setApiBaseUrl(String baseUrl) {
+        savePreference(API_BASE_URL, baseUrl);
+    }
+
+    public int getLocalReplicas() {
+        return getIntPreference(LOCAL_REPLICAS, 1);
+    }
+
+    public void setLocalReplicas(int replicas) {
+        saveIntPreference(LOCAL_REPLICAS, replicas);
+    }
+
+    public int getLocalMemoryBudgetMb() {
+        return getIntPreference(LOCAL_MEMORY_BUDGET_MB, 0);
+    }
+
+    public void setLocalMemoryBudgetMb(int megabytes) {
+        saveIntPreference(LOCAL_MEMORY_BUDGET_MB, megabytes);
+    }
+
+    public int getLocalCpuThreads() {
+        return getIntPreference(LOCAL_CPU_THREADS, 0);
+    }
+
+    public void setLocalCpuThreads(int threads) {
+        saveIntPreference(LOCAL_CPU_THREADS, threads);
+    }
+
+    public int getLocalIdleUnloadMinutes() {
+        return getIntPreference(LOCAL_IDLE_UNLOAD_MINUTES, 15);
+    }
+
+    public void setLocalIdleUnloadMinutes(int minutes) {
+        saveIntPreference(LOCAL_IDLE_UNLOAD_MINUTES, minutes);
+    }
+
+    public int getLocalParallelSlots() {
+        return getIntPreference(LOCAL_PARALLEL_SLOTS, 2);
+    }
+
+    public void setLocalParallelSlots(int slots) {
+        saveIntPreference(LOCAL_PARALLEL_SLOTS, slots);
+    }
+
     public List<String> getAvailableLocalModels() {
         String models = getPreference(LOCAL_MODELS, "deepseek-coder-33b-instruct");
         return new ArrayList<>(Arrays.asList(models.split(";")));
@@ -277,6 +421,22 @@ public class DeepSeekPreferences {
                 TEMPERATURE,
                 TOP_P,
                 RATE_LIMIT,
+                RATE_LIMIT_BURST,
+                MAX_RETRIES,
+                LOCAL_TIMEOUT,
+                HTTP_MAX_IDLE_CONNECTIONS,
+                HTTP_KEEP_ALIVE,
+                TRIM_LONG_PROMPTS,
+                CONTEXT_TOKEN_BUDGET,
+                HEDGING_ENABLED,
+                HEDGE_PERCENTILE,
+                MAX_CONCURRENT_REQUESTS,
+                API_BASE_URL,
+                LOCAL_REPLICAS,
+                LOCAL_MEMORY_BUDGET_MB,
+                LOCAL_CPU_THREADS,
+                LOCAL_IDLE_UNLOAD_MINUTES,
+                LOCAL_PARALLEL_SLOTS,
                 LOCAL_MODELS,
                 FIRST_RUN
         );
@@ -1,6 +1,10 @@
 package es.furynocturntv.mcreator.deepseek.gui;
 
+import es.furynocturntv.mcreator.deepseek.services.LlamaServerPool;
 import es.furynocturntv.mcreator.deepseek.utils.PluginLogger;
+import es.furynocturntv.mcreator.deepseek.utils.ProcessOutputPump;
+import es.furynocturntv.mcreator.deepseek.utils.RequestScheduler;
+import es.furynocturntv.mcreator.deepseek.utils.TaskExecutor;
 
 import javax.swing.*;
 import java.awt.*;
@@ -34,9 +38,23 @@ public class DebugToolsPanel extends JPanel {
         JButton exportButton = new JButton("Exportar Logs");
         exportButton.addActionListener(e -> exportLogs());
 
+        JButton tasksButton = new JButton("Ver Tareas");
+        tasksButton.addActionListener(e -> {
+            // Grupos de tareas, colas del planificador y servidores locales
+            logArea.setText(TaskExecutor.getInstance().describe() + System.lineSeparator()
+                    + RequestScheduler.getInstance().describe() + System.lineSeparator()
+                    + LlamaServerPool.getInstance().describe());
+            logArea.setCaretPosition(0);
+        });
+
+        JButton serversButton = new JButton("Salida llama.cpp");
+        serversButton.addActionListener(e -> showServerOutput());
+
         buttonPanel.add(refreshButton);
         buttonPanel.add(clearButton);
         buttonPanel.add(exportButton);
+        buttonPanel.add(tasksButton);
+        buttonPanel.add(serversButton);
 
         add(new JScrollPane(logArea), BorderLayout.CENTER);
         add(buttonPanel, BorderLayout.SOUTH);
@@ -49,6 +67,25 @@ public class DebugToolsPanel extends JPanel {
         logArea.setCaretPosition(0);
     }
 
+    /**
+     * Últimas líneas que ha escrito cada servidor llama.cpp en marcha
+     */
+    private void showServerOutput() {
+        StringBuilder text = new StringBuilder();
+        LlamaServerPool.getInstance().getReplicas().forEach((name, replicas) -> replicas.forEach(replica -> {
+            ProcessOutputPump output = replica.getOutput();
+            text.append("=== ").append(name).append('#').append(replica.getIndex())
+                    .append(" (puerto ").append(replica.getPort()).append(") ===").append(System.lineSeparator());
+            if (output != null) {
+                output.getLines().forEach(line -> text.append(line).append(System.lineSeparator()));
+            }
+            text.append(System.lineSeparator());
+        }));
+
+        logArea.setText(text.length() > 0 ? text.toString() : "No hay servidores locales en marcha");
+        logArea.setCaretPosition(0);
+    }
+
     private void exportLogs() {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Exportar Logs");
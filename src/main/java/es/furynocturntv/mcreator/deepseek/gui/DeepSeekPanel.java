@@ -1,8 +1,17 @@
 package es.furynocturntv.mcreator.deepseek.gui;
 
 import es.furynocturntv.mcreator.deepseek.gui.components.ActivityIndicator;
+import es.furynocturntv.mcreator.deepseek.models.OutputGrammar;
+import es.furynocturntv.mcreator.deepseek.services.ConversationSession;
 import es.furynocturntv.mcreator.deepseek.services.DeepSeekClient;
+import es.furynocturntv.mcreator.deepseek.services.PromptCacheStats;
+import es.furynocturntv.mcreator.deepseek.services.RequestHandle;
+import es.furynocturntv.mcreator.deepseek.utils.CircuitBreaker;
+import es.furynocturntv.mcreator.deepseek.utils.CircuitBreakerRegistry;
+import es.furynocturntv.mcreator.deepseek.utils.CodeGenerator;
+import es.furynocturntv.mcreator.deepseek.utils.CompilationAnalyzer;
 import es.furynocturntv.mcreator.deepseek.utils.ConversationHistory;
+import es.furynocturntv.mcreator.deepseek.utils.Futures;
 import es.furynocturntv.mcreator.deepseek.utils.SettingsManager;
 import net.mcreator.ui.MCreator;
 import net.mcreator.ui.init.UIRES;
@@ -13,8 +22,14 @@ import net.miginfocom.swing.MigLayout;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
+import java.awt.event.HierarchyEvent;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class DeepSeekPanel extends JPanel {
 
@@ -22,6 +37,8 @@ public class DeepSeekPanel extends JPanel {
     private final DeepSeekClient apiClient;
     private final ConversationHistory historyManager;
     private final SettingsManager settingsManager;
+    private final CodeGenerator codeGenerator;
+    private final CompilationAnalyzer compilationAnalyzer;
 
     // Componentes UI
     private JTextArea chatArea;
@@ -32,20 +49,37 @@ public class DeepSeekPanel extends JPanel {
     private JButton clearButton;
     private JButton historyButton;
     private JButton settingsButton;
+    private JButton generateCodeButton;
+    private JButton editCodeButton;
+    private JButton elementSpecButton;
     private JLabel costLabel;
     private JLabel statusLabel;
+    private JLabel circuitLabel;
     private JProgressBar progressBar;
     private JSplitPane splitPane;
     private JTabbedPane tabbedPane;
     private ActivityIndicator activityIndicator;
     private JPanel statusPanel;
+    // Refresca la cuenta atrás mientras algún backend tiene el circuito abierto
+    private Timer circuitTimer;
+    // Registrado en el registro global solo mientras el panel está en pantalla, para no retenerlo al cerrarse
+    private final Consumer<CircuitBreaker> circuitListener =
+            breaker -> SwingUtilities.invokeLater(this::updateCircuitStatus);
 
-    public DeepSeekPanel(MCreator mcreator, DeepSeekClient apiClient,
-                         ConversationHistory historyManager, SettingsManager settingsManager) {
+    // Solicitud en curso lanzada desde este panel
+    private RequestHandle currentRequest;
+
+    // Conversación en curso; se envía como contexto en cada mensaje
+    private final ConversationSession conversation = new ConversationSession();
+
+    public DeepSeekPanel(MCreator mcreator, DeepSeekClient apiClient, ConversationHistory historyManager,
+                         SettingsManager settingsManager, CodeGenerator codeGenerator) {
         this.mcreator = mcreator;
         this.apiClient = apiClient;
         this.historyManager = historyManager;
         this.settingsManager = settingsManager;
+        this.codeGenerator = codeGenerator;
+        this.compilationAnalyzer = new CompilationAnalyzer(apiClient, settingsManager);
 
         initComponents();
         setupLayout();
@@ -70,7 +104,7 @@ public class DeepSeekPanel extends JPanel {
         // Panel de pestañas
         tabbedPane = new JTabbedPane();
         tabbedPane.addTab("Conversación", new JScrollPane(chatArea));
-        tabbedPane.addTab("Código", new JScrollPane(codeArea));
+        tabbedPane.addTab("Código", createCodePanel());
 
         // Campo de entrada
         inputField = new VTextField();
@@ -96,13 +130,17 @@ public class DeepSeekPanel extends JPanel {
         statusLabel.setFont(new Font("Segoe UI", Font.ITALIC, 11));
         statusLabel.setForeground(new Color(100, 100, 100));
 
+        circuitLabel = new JLabel();
+        circuitLabel.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+
         // Barra de progreso
         progressBar = new JProgressBar();
         progressBar.setIndeterminate(false);
         progressBar.setVisible(false);
 
         // Configurar estilo de botones
-        for (JButton button : new JButton[]{sendButton, cancelButton, clearButton, historyButton, settingsButton}) {
+        for (JButton button : new JButton[]{sendButton, cancelButton, clearButton, historyButton, settingsButton,
+                generateCodeButton, editCodeButton, elementSpecButton}) {
             button.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
             button.setFocusPainted(false);
             button.setContentAreaFilled(false);
@@ -125,7 +163,28 @@ public class DeepSeekPanel extends JPanel {
         statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
         statusPanel.add(activityIndicator);
         statusPanel.add(statusLabel);
+        statusPanel.add(circuitLabel);
         activityIndicator.setVisible(false);
+        updateCircuitStatus();
+    }
+
+    /**
+     * Pestaña de código: el último bloque recibido y las acciones que escriben en el workspace
+     */
+    private JPanel createCodePanel() {
+        generateCodeButton = new JButton("Generar código");
+        editCodeButton = new JButton("Editar clase");
+        elementSpecButton = new JButton("Especificar elemento");
+
+        JPanel actions = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 5));
+        actions.add(generateCodeButton);
+        actions.add(editCodeButton);
+        actions.add(elementSpecButton);
+
+        JPanel codePanel = new JPanel(new BorderLayout());
+        codePanel.add(new JScrollPane(codeArea), BorderLayout.CENTER);
+        codePanel.add(actions, BorderLayout.SOUTH);
+        return codePanel;
     }
 
     private void setupLayout() {
@@ -189,17 +248,37 @@ public class DeepSeekPanel extends JPanel {
             }
         });
 
+        // Estado de los backends: los cambios llegan desde hilos de red
+        circuitTimer = new Timer(1000, e -> updateCircuitStatus());
+
+        // Al abrir el panel sin conexión se carga ya el modelo local para no esperar en el primer mensaje
+        addHierarchyListener(e -> {
+            if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && isShowing()
+                    && settingsManager.isOfflineModeEnabled()) {
+                apiClient.prewarmLocalModel();
+            }
+        });
+
         // Acción del botón enviar
         sendButton.addActionListener(e -> sendMessage());
 
+        // Acciones de la pestaña de código
+        generateCodeButton.addActionListener(e -> generateCode());
+        editCodeButton.addActionListener(e -> editCode());
+        elementSpecButton.addActionListener(e -> specifyElement());
+
         // Acción del botón cancelar
         cancelButton.addActionListener(e -> {
-            apiClient.cancelCurrentRequest();
-            setStatus("Operación cancelada", false);
+            // Solo se cancela la solicitud de este panel; los trabajos en segundo plano siguen
+            if (currentRequest != null && currentRequest.cancel()) {
+                setStatus("Operación cancelada", false);
+            }
         });
 
         // Acción del botón limpiar
         clearButton.addActionListener(e -> {
+            // Empezar una conversación nueva sin el contexto anterior
+            conversation.clear();
             chatArea.setText("");
             codeArea.setText("");
             costLabel.setText("Costo: $0.00");
@@ -216,6 +295,22 @@ public class DeepSeekPanel extends JPanel {
         });
     }
 
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        CircuitBreakerRegistry.getInstance().addListener(circuitListener);
+        updateCircuitStatus();
+    }
+
+    @Override
+    public void removeNotify() {
+        CircuitBreakerRegistry.getInstance().removeListener(circuitListener);
+        if (circuitTimer != null) {
+            circuitTimer.stop();
+        }
+        super.removeNotify();
+    }
+
     private void sendMessage() {
         if (!inputField.getValidationStatus().isValid()) {
             setStatus("Por favor escribe un mensaje válido", true);
@@ -237,51 +332,190 @@ public class DeepSeekPanel extends JPanel {
         sendButton.setEnabled(false);
         cancelButton.setEnabled(true);
 
-        // Ejecutar solicitud en un hilo separado
-        new SwingWorker<String, Void>() {
-            @Override
-            protected String doInBackground() throws Exception {
-                return apiClient.sendRequest(message, settingsManager.getSelectedModel());
+        // La respuesta se irá mostrando según lleguen los fragmentos
+        chatArea.append("DeepSeek: ");
+
+        // Ejecutar solicitud sin bloquear ningún hilo; los fragmentos se vuelcan en el EDT
+        RequestHandle request = apiClient.submitRequest(conversation, message, settingsManager.getSelectedModel(),
+                delta -> SwingUtilities.invokeLater(() -> appendDelta(delta)));
+        currentRequest = request;
+
+        // Un registro de compilación pegado en el chat se analiza aparte, sin retrasar la respuesta
+        if (settingsManager.isAnalyzeErrorsEnabled()) {
+            analyzeErrors(message);
+        }
+
+        request.getFuture().whenComplete((response, error) -> SwingUtilities.invokeLater(() -> {
+            if (request.isCancelled()) {
+                appendToChat("");
+            } else if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                appendToChat("");
+                setStatus("Error: " + cause.getMessage(), true);
+            } else {
+                processResponse(response);
             }
 
-            @Override
-            protected void done() {
-                try {
-                    String response = get();
-                    processResponse(response);
-                } catch (Exception e) {
-                    setStatus("Error: " + e.getMessage(), true);
-                } finally {
-                    activityIndicator.stop();
-                    activityIndicator.setVisible(false);
-                    progressBar.setIndeterminate(false);
-                    progressBar.setVisible(false);
-                    sendButton.setEnabled(true);
-                    cancelButton.setEnabled(false);
-                }
+            activityIndicator.stop();
+            activityIndicator.setVisible(false);
+            progressBar.setIndeterminate(false);
+            progressBar.setVisible(false);
+            sendButton.setEnabled(true);
+            cancelButton.setEnabled(false);
+        }));
+    }
+
+    private void analyzeErrors(String log) {
+        compilationAnalyzer.analyzeErrorsAsync(log).thenAccept(result -> {
+            if (!result.hasErrors()) {
+                return;
+            }
+            StringBuilder analysis = new StringBuilder("Análisis de errores de compilación:\n");
+            result.errors.forEach(error -> analysis.append(error).append("\n\n"));
+            SwingUtilities.invokeLater(() -> appendToChat(analysis.toString()));
+        });
+    }
+
+    private void generateCode() {
+        String name = JOptionPane.showInputDialog(this, "Nombre del elemento (Clase.método para un método):");
+        if (name == null || name.isBlank()) {
+            return;
+        }
+        CodeGenerator.CodeType type = (CodeGenerator.CodeType) JOptionPane.showInputDialog(this, "Tipo de código:",
+                "Generar código", JOptionPane.QUESTION_MESSAGE, null, CodeGenerator.CodeType.values(),
+                CodeGenerator.CodeType.CLASS);
+        String description = type == null ? null : JOptionPane.showInputDialog(this, "¿Qué debe hacer el código?");
+        if (description == null || description.isBlank()) {
+            return;
+        }
+
+        runCodeTask("Generando código...", () -> codeGenerator.generateCode(description, name.trim(), type),
+                ignored -> setStatus("Código guardado en " + name.trim(), false));
+    }
+
+    private void editCode() {
+        String className = JOptionPane.showInputDialog(this, "Clase a modificar:");
+        String instruction = className == null || className.isBlank() ? null
+                : JOptionPane.showInputDialog(this, "¿Qué cambio quieres hacer?");
+        if (instruction == null || instruction.isBlank()) {
+            return;
+        }
+
+        String name = className.trim();
+        runCodeTask("Editando " + name + "...", () -> codeGenerator.editCode(name, instruction),
+                explanation -> {
+                    appendToChat("DeepSeek (" + name + "): " + explanation + "\n");
+                    setStatus("Cambio guardado en " + name, false);
+                });
+    }
+
+    private void specifyElement() {
+        String description = JOptionPane.showInputDialog(this, "Describe el elemento:");
+        if (description == null || description.isBlank()) {
+            return;
+        }
+
+        runCodeTask("Especificando elemento...", () -> codeGenerator.generateElementSpec(description), spec -> {
+            codeArea.setText(spec.toString(2));
+            tabbedPane.setSelectedIndex(1);
+            setStatus("Listo", false);
+        });
+    }
+
+    /**
+     * Lanza una acción de la pestaña de código mostrando el progreso
+     * @param onSuccess Se ejecuta en el EDT con el resultado
+     */
+    private <T> void runCodeTask(String status, Supplier<CompletableFuture<T>> task,
+                                 Consumer<T> onSuccess) {
+        CompletableFuture<T> future;
+        try {
+            future = task.get();
+        } catch (RuntimeException e) {
+            setStatus("Error: " + e.getMessage(), true);
+            return;
+        }
+
+        setStatus(status, false);
+        activityIndicator.start();
+        activityIndicator.setVisible(true);
+        future.whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            activityIndicator.stop();
+            activityIndicator.setVisible(false);
+            if (error != null) {
+                setStatus("Error: " + Futures.unwrap(error).getMessage(), true);
+            } else {
+                onSuccess.accept(result);
             }
-        }.execute();
+        }));
+    }
+
+    private void appendDelta(String delta) {
+        // Volcar el fragmento recibido y refrescar el costo en vivo
+        chatArea.append(delta);
+        chatArea.setCaretPosition(chatArea.getDocument().getLength());
+        updateCostLabel();
     }
 
     private void processResponse(String response) {
-        // Procesar la respuesta (separar texto de código)
-        // Esto es un ejemplo básico - deberías implementar un parser más sofisticado
+        // El texto ya se mostró en streaming; solo cerramos el mensaje
+        appendToChat("\n");
+
+        // Separar el primer bloque de código a su pestaña
         if (response.contains("```")) {
-            String[] parts = response.split("```");
-            appendToChat("DeepSeek: " + parts[0]);
-            if (parts.length > 1) {
-                codeArea.setText(parts[1]);
-                tabbedPane.setSelectedIndex(1);
-            }
-        } else {
-            appendToChat("DeepSeek: " + response);
+            codeArea.setText(OutputGrammar.CODE_BLOCK.parseCode(response));
+            tabbedPane.setSelectedIndex(1);
         }
 
-        // Actualizar costo
+        updateCostLabel();
+        setStatus("Listo", false);
+    }
+
+    private void updateCostLabel() {
         double cost = apiClient.getCurrentSessionCost();
+        PromptCacheStats cacheStats = apiClient.getPromptCacheStats();
         costLabel.setText(String.format("Costo: $%.4f", cost));
+        costLabel.setToolTipText(String.format("Caché de contexto: %.0f%% de tokens de prompt, ahorro $%.4f",
+                cacheStats.getHitRatio() * 100, cacheStats.getSavings()));
+    }
 
-        setStatus("Listo", false);
+    /**
+     * Muestra los backends con el circuito abierto o en prueba; el tooltip detalla todos
+     */
+    private void updateCircuitStatus() {
+        StringBuilder text = new StringBuilder();
+        StringBuilder tooltip = new StringBuilder("<html>");
+        boolean anyOpen = false;
+
+        for (CircuitBreaker breaker : CircuitBreakerRegistry.getInstance().getBreakers().values()) {
+            String label = CircuitBreakerRegistry.ONLINE.equals(breaker.getName()) ? "API" : breaker.getName();
+            String state = switch (breaker.getState()) {
+                case CLOSED -> "disponible";
+                case HALF_OPEN -> "probando";
+                case OPEN -> "no disponible (prueba en "
+                        + TimeUnit.MILLISECONDS.toSeconds(breaker.getRemainingOpenMillis()) + " s)";
+            };
+            tooltip.append(String.format("%s: %s, %.0f%% de errores recientes<br>",
+                    label, state, breaker.getFailureRate() * 100));
+
+            if (breaker.getState() != CircuitBreaker.State.CLOSED) {
+                anyOpen |= breaker.getState() == CircuitBreaker.State.OPEN;
+                text.append(text.length() == 0 ? "" : " · ").append(label).append(": ").append(state);
+            }
+        }
+
+        circuitLabel.setText(text.toString());
+        circuitLabel.setForeground(anyOpen ? new Color(180, 90, 0) : new Color(100, 100, 100));
+        circuitLabel.setToolTipText(tooltip.append("</html>").toString());
+
+        if (circuitTimer != null) {
+            if (anyOpen && !circuitTimer.isRunning()) {
+                circuitTimer.start();
+            } else if (!anyOpen) {
+                circuitTimer.stop();
+            }
+        }
     }
 
     private void appendToChat(String text) {
@@ -1,6 +1,7 @@
 package es.furynocturntv.mcreator.deepseek.gui;
 
 import es.furynocturntv.mcreator.deepseek.models.ModelDownloader;
+import es.furynocturntv.mcreator.deepseek.utils.TaskExecutor;
 
 import javax.swing.*;
 import java.awt.*;
@@ -66,7 +67,7 @@ public class ModelManagementDialog extends JDialog {
      * Inicia la descarga del modelo predeterminado en segundo plano
      */
     private void downloadDefaultModel() {
-        new Thread(() -> {
+        TaskExecutor.getInstance().group("model-download").execute(() -> {
             try {
                 Path path = Paths.get(System.getProperty("user.home"), ".deepseek-mcreator", "models");
                 ModelDownloader.downloadDefaultModel(path);
@@ -85,7 +86,7 @@ public class ModelManagementDialog extends JDialog {
                                 JOptionPane.ERROR_MESSAGE)
                 );
             }
-        }).start();
+        });
     }
 
     /**
@@ -0,0 +1,239 @@
+package es.furynocturntv.mcreator.deepseek.models;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Metadatos de cabecera de un archivo GGUF (arquitectura, capas, dimensiones y contexto de
+ * entrenamiento). Solo se leen los pares clave-valor escalares; de los arrays (p. ej. el
+ * vocabulario del tokenizador) se guarda la longitud y se saltan los elementos.
+ */
+public class GgufMetadata {
+    private static final int MAGIC = 0x46554747; // "GGUF" en little-endian
+    // Límite de cordura para no reservar memoria con un archivo corrupto
+    private static final long MAX_STRING_LENGTH = 1 << 24;
+    private static final int ARRAY_TYPE = 9;
+
+    private final Map<String, Object> values;
+    private final Map<String, Long> arrayLengths;
+    private final long fileSize;
+
+    private GgufMetadata(Map<String, Object> values, Map<String, Long> arrayLengths, long fileSize) {
+        this.values = values;
+        this.arrayLengths = arrayLengths;
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Lee la cabecera del archivo
+     * @throws IOException Si no es un GGUF válido
+     */
+    public static GgufMetadata read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            if (readU32(in) != MAGIC) {
+                throw new IOException("Not a GGUF file: " + file);
+            }
+            int version = readU32(in);
+            if (version < 2) {
+                throw new IOException("Unsupported GGUF version " + version + ": " + file);
+            }
+            readU64(in); // número de tensores
+            long kvCount = readU64(in);
+
+            Map<String, Object> values = new HashMap<>();
+            Map<String, Long> arrayLengths = new HashMap<>();
+            for (long i = 0; i < kvCount; i++) {
+                String key = readString(in);
+                int type = readU32(in);
+                if (type == ARRAY_TYPE) {
+                    arrayLengths.put(key, skipArray(in));
+                } else {
+                    values.put(key, readValue(in, type));
+                }
+            }
+            return new GgufMetadata(values, arrayLengths, Files.size(file));
+        }
+    }
+
+    public String getArchitecture() {
+        return getString("general.architecture");
+    }
+
+    /**
+     * Valor de texto de una clave, o "" si no existe
+     */
+    public String getString(String key) {
+        Object value = values.get(key);
+        return value instanceof String ? (String) value : "";
+    }
+
+    /**
+     * Valor numérico de una clave, o el valor por defecto si no existe
+     */
+    public long getLong(String key, long defaultValue) {
+        Object value = values.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+    }
+
+    /**
+     * Valor numérico de una clave propia de la arquitectura (p. ej. "block_count")
+     */
+    public long getArchitectureLong(String key, long defaultValue) {
+        return getLong(getArchitecture() + "." + key, defaultValue);
+    }
+
+    /**
+     * Elementos de un array (p. ej. "tokenizer.ggml.tokens"), o 0 si no existe
+     */
+    public long getArrayLength(String key) {
+        return arrayLengths.getOrDefault(key, 0L);
+    }
+
+    /**
+     * Tamaño del vocabulario del tokenizador
+     */
+    public long getVocabularySize() {
+        return getArrayLength("tokenizer.ggml.tokens");
+    }
+
+    /**
+     * Indica si otro modelo tokeniza igual, requisito para usarlo como borrador en la
+     * decodificación especulativa: mismo tipo de tokenizador, vocabulario y tokens especiales
+     */
+    public boolean hasSameTokenizer(GgufMetadata other) {
+        return getString("tokenizer.ggml.model").equals(other.getString("tokenizer.ggml.model"))
+                && getVocabularySize() == other.getVocabularySize()
+                && getLong("tokenizer.ggml.bos_token_id", -1) == other.getLong("tokenizer.ggml.bos_token_id", -1)
+                && getLong("tokenizer.ggml.eos_token_id", -1) == other.getLong("tokenizer.ggml.eos_token_id", -1);
+    }
+
+    public long getContextLength() {
+        return getArchitectureLong("context_length", 0);
+    }
+
+    public long getBlockCount() {
+        return getArchitectureLong("block_count", 0);
+    }
+
+    public long getEmbeddingLength() {
+        return getArchitectureLong("embedding_length", 0);
+    }
+
+    public long getHeadCount() {
+        return getArchitectureLong("attention.head_count", 0);
+    }
+
+    /**
+     * Cabezas de clave/valor; con atención agrupada (GQA) son menos que las de consulta
+     */
+    public long getHeadCountKv() {
+        return getArchitectureLong("attention.head_count_kv", getHeadCount());
+    }
+
+    /**
+     * Tamaño del archivo, que aproxima la memoria de los pesos
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Bytes de caché KV por token de contexto con claves y valores en f16, o 0 si faltan datos
+     */
+    public long getKvBytesPerToken() {
+        long layers = getBlockCount();
+        long embedding = getEmbeddingLength();
+        long heads = getHeadCount();
+        if (layers <= 0 || embedding <= 0 || heads <= 0) {
+            return 0;
+        }
+        long kvEmbedding = embedding * getHeadCountKv() / heads;
+        return 2 * layers * kvEmbedding * 2;
+    }
+
+    /**
+     * Lee un valor del tipo indicado; los arrays anidados se saltan y devuelven null
+     */
+    private static Object readValue(DataInputStream in, int type) throws IOException {
+        return switch (type) {
+            case 0 -> (long) in.readUnsignedByte();
+            case 1 -> (long) in.readByte();
+            case 2 -> (long) readU16(in);
+            case 3 -> (long) (short) readU16(in);
+            case 4 -> readU32(in) & 0xFFFFFFFFL;
+            case 5 -> (long) readU32(in);
+            case 6 -> (double) Float.intBitsToFloat(readU32(in));
+            case 7 -> in.readUnsignedByte() != 0;
+            case 8 -> readString(in);
+            case ARRAY_TYPE -> {
+                skipArray(in);
+                yield null;
+            }
+            case 10, 11 -> readU64(in);
+            case 12 -> Double.longBitsToDouble(readU64(in));
+            default -> throw new IOException("Unknown GGUF value type " + type);
+        };
+    }
+
+    /**
+     * @return Número de elementos del array
+     */
+    private static long skipArray(DataInputStream in) throws IOException {
+        int type = readU32(in);
+        long count = readU64(in);
+        int size = switch (type) {
+            case 0, 1, 7 -> 1;
+            case 2, 3 -> 2;
+            case 4, 5, 6 -> 4;
+            case 10, 11, 12 -> 8;
+            default -> 0;
+        };
+        if (size > 0) {
+            skipFully(in, count * size);
+            return count;
+        }
+        for (long i = 0; i < count; i++) {
+            readValue(in, type);
+        }
+        return count;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        long length = readU64(in);
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Invalid GGUF string length " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipFully(InputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of GGUF header");
+            }
+            bytes -= skipped;
+        }
+    }
+
+    private static int readU16(DataInputStream in) throws IOException {
+        return Short.reverseBytes(in.readShort()) & 0xFFFF;
+    }
+
+    private static int readU32(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    private static long readU64(DataInputStream in) throws IOException {
+        return Long.reverseBytes(in.readLong());
+    }
+}
@@ -0,0 +1,162 @@
+package es.furynocturntv.mcreator.deepseek.models;
+
+import org.json.JSONObject;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parámetros de arranque de un servidor llama.cpp: hilos, tamaño de lote, contexto, capas
+ * en GPU, cómo se mapea el modelo en memoria y el modelo borrador de la decodificación
+ * especulativa. Los calcula LaunchProfilePlanner según la máquina y el GGUF; cada modelo
+ * puede fijar cualquiera de ellos con {@link Overrides}.
+ */
+public class LaunchProfile {
+    // Hilos de generación (limitada por el ancho de banda de memoria: uno por núcleo físico)
+    public int threads;
+    // Hilos para procesar el prompt (limitado por cálculo: aprovecha también los hilos SMT)
+    public int threadsBatch;
+    public int batchSize;
+    // Contexto total; llama.cpp lo reparte a partes iguales entre los slots
+    public int contextSize;
+    // Slots (--parallel): conversaciones simultáneas, cada una con su propia caché KV
+    public int parallel = 1;
+    public int gpuLayers;
+    // Bloquear el modelo en RAM para que el sistema no lo pagine
+    public boolean mlock;
+    // Leer el modelo entero en lugar de mapearlo
+    public boolean noMmap;
+    // Directorio donde llama.cpp guarda y restaura el estado de los slots, o null
+    public String slotSavePath;
+    // GGUF del modelo borrador que propone tokens para que el principal los verifique, o null
+    public String draftModelPath;
+    // Tokens que propone el borrador en cada paso (como máximo y como mínimo para usarlos)
+    public int draftMax = 16;
+    public int draftMin = 2;
+    public int draftGpuLayers;
+    // Memoria estimada del proceso: pesos, caché KV del contexto y búferes de cálculo
+    public long estimatedMemoryBytes;
+
+    /**
+     * Argumentos de línea de comandos de llama.cpp para este perfil
+     */
+    public List<String> toArguments() {
+        List<String> arguments = new ArrayList<>();
+        arguments.add("--threads");
+        arguments.add(String.valueOf(threads));
+        arguments.add("--threads-batch");
+        arguments.add(String.valueOf(threadsBatch));
+        arguments.add("--batch-size");
+        arguments.add(String.valueOf(batchSize));
+        arguments.add("--ctx-size");
+        arguments.add(String.valueOf(contextSize));
+        arguments.add("--n-gpu-layers");
+        arguments.add(String.valueOf(gpuLayers));
+        arguments.add("--parallel");
+        arguments.add(String.valueOf(parallel));
+        if (slotSavePath != null) {
+            arguments.add("--slot-save-path");
+            arguments.add(slotSavePath);
+        }
+        if (draftModelPath != null) {
+            arguments.add("--model-draft");
+            arguments.add(draftModelPath);
+            arguments.add("--draft-max");
+            arguments.add(String.valueOf(draftMax));
+            arguments.add("--draft-min");
+            arguments.add(String.valueOf(draftMin));
+            arguments.add("--gpu-layers-draft");
+            arguments.add(String.valueOf(draftGpuLayers));
+        }
+        if (mlock) {
+            arguments.add("--mlock");
+        }
+        if (noMmap) {
+            arguments.add("--no-mmap");
+        }
+        return arguments;
+    }
+
+    /**
+     * Resumen legible, p. ej. "ctx 8192 en 2 slots, hilos 8/16, lote 512, GPU 0 capas, mlock"
+     */
+    public String describe() {
+        return String.format("ctx %d en %d slots, hilos %d/%d, lote %d, GPU %d capas%s%s%s", contextSize, parallel,
+                threads, threadsBatch, batchSize, gpuLayers, mlock ? ", mlock" : "", noMmap ? ", sin mmap" : "",
+                draftModelPath != null
+                        ? ", borrador " + Path.of(draftModelPath).getFileName() + " (" + draftMin + "-" + draftMax + ")"
+                        : "");
+    }
+
+    /**
+     * Valores fijados por el usuario para un modelo; los null los decide el planificador
+     */
+    public static class Overrides {
+        public Integer threads;
+        public Integer threadsBatch;
+        public Integer batchSize;
+        public Integer contextSize;
+        public Integer parallel;
+        public Integer gpuLayers;
+        public Boolean mlock;
+        public Boolean noMmap;
+        public Integer draftMax;
+        public Integer draftMin;
+
+        /**
+         * Aplica sobre el perfil los valores fijados
+         */
+        public void applyTo(LaunchProfile profile) {
+            if (threads != null) profile.threads = threads;
+            if (threadsBatch != null) profile.threadsBatch = threadsBatch;
+            if (batchSize != null) profile.batchSize = batchSize;
+            if (contextSize != null) profile.contextSize = contextSize;
+            if (parallel != null) profile.parallel = parallel;
+            if (gpuLayers != null) profile.gpuLayers = gpuLayers;
+            if (mlock != null) profile.mlock = mlock;
+            if (noMmap != null) profile.noMmap = noMmap;
+            if (draftMax != null) profile.draftMax = draftMax;
+            if (draftMin != null) profile.draftMin = draftMin;
+        }
+
+        public boolean isEmpty() {
+            return threads == null && threadsBatch == null && batchSize == null && contextSize == null
+                    && parallel == null && gpuLayers == null && mlock == null && noMmap == null
+                    && draftMax == null && draftMin == null;
+        }
+
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.putOpt("threads", threads);
+            json.putOpt("threadsBatch", threadsBatch);
+            json.putOpt("batchSize", batchSize);
+            json.putOpt("contextSize", contextSize);
+            json.putOpt("parallel", parallel);
+            json.putOpt("gpuLayers", gpuLayers);
+            json.putOpt("mlock", mlock);
+            json.putOpt("noMmap", noMmap);
+            json.putOpt("draftMax", draftMax);
+            json.putOpt("draftMin", draftMin);
+            return json;
+        }
+
+        public static Overrides fromJson(JSONObject json) {
+            Overrides overrides = new Overrides();
+            if (json == null) {
+                return overrides;
+            }
+            overrides.threads = json.has("threads") ? json.getInt("threads") : null;
+            overrides.threadsBatch = json.has("threadsBatch") ? json.getInt("threadsBatch") : null;
+            overrides.batchSize = json.has("batchSize") ? json.getInt("batchSize") : null;
+            overrides.contextSize = json.has("contextSize") ? json.getInt("contextSize") : null;
+            overrides.parallel = json.has("parallel") ? json.getInt("parallel") : null;
+            overrides.gpuLayers = json.has("gpuLayers") ? json.getInt("gpuLayers") : null;
+            overrides.mlock = json.has("mlock") ? json.getBoolean("mlock") : null;
+            overrides.noMmap = json.has("noMmap") ? json.getBoolean("noMmap") : null;
+            overrides.draftMax = json.has("draftMax") ? json.getInt("draftMax") : null;
+            overrides.draftMin = json.has("draftMin") ? json.getInt("draftMin") : null;
+            return overrides;
+        }
+    }
+}
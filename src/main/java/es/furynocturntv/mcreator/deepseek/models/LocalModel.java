@@ -1,13 +1,22 @@
 package es.furynocturntv.mcreator.deepseek.models;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonRawValue;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import es.furynocturntv.mcreator.deepseek.services.LlamaClient;
+import es.furynocturntv.mcreator.deepseek.services.LlamaServerPool;
+import es.furynocturntv.mcreator.deepseek.services.LlmRequest;
+import es.furynocturntv.mcreator.deepseek.services.StreamListener;
+import es.furynocturntv.mcreator.deepseek.utils.Futures;
 import org.json.JSONObject;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
 
 public class LocalModel {
@@ -16,12 +25,13 @@ public class LocalModel {
     private final ModelType type;
     private final String description;
     private final Path modelPath;
-    private final LlamaClient llamaClient;
-    private boolean modelLoaded = false;
+    private final LlamaServerPool serverPool;
+    private LaunchProfile.Overrides launchOverrides = new LaunchProfile.Overrides();
+    // Modelo pequeño con el mismo tokenizador para la decodificación especulativa, o null
+    private String draftModel;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     // Tiempos de espera (en milisegundos)
-    private static final int LOAD_TIMEOUT = 120000; // 2 minutos para cargar el modelo
     private static final int GENERATION_TIMEOUT = 300000; // 5 minutos para generación
 
     public LocalModel(String name, String modelId, ModelType type, String description, Path modelPath) {
@@ -31,9 +41,8 @@ public class LocalModel {
         this.description = description;
         this.modelPath = modelPath;
 
-        // Configurar cliente llama.cpp
-        Path binariesDir = Path.of(System.getProperty("user.home"), ".deepseek-mcreator", "binaries");
-        this.llamaClient = new LlamaClient(modelPath.getParent(), binariesDir);
+        // Los servidores llama.cpp (puerto, réplicas y presupuesto) los gestiona el conjunto compartido
+        this.serverPool = LlamaServerPool.getInstance();
     }
 
     /**
@@ -43,7 +52,7 @@ public class LocalModel {
      * @throws Exception Si ocurre algún error durante la generación
      */
     public String generateResponse(String prompt) throws Exception {
-        if (!modelLoaded) {
+        if (!isModelLoaded()) {
             loadModel();
         }
 
@@ -51,7 +60,7 @@ public class LocalModel {
         GenerationParams params = createGenerationParams(prompt);
 
         try {
-            ModelResponse response = llamaClient.generateResponse(params, GENERATION_TIMEOUT);
+            ModelResponse response = serverPool.generate(this, params, GENERATION_TIMEOUT);
             return processResponse(response);
         } catch (TimeoutException e) {
             throw new Exception("Tiempo de espera agotado generando respuesta", e);
@@ -60,29 +69,98 @@ public class LocalModel {
         }
     }
 
+    /**
+     * Genera una respuesta sin bloquear el hilo llamante
+     * @param prompt Texto de entrada para el modelo
+     * @param loadExecutor Executor donde cargar el modelo si aún no está en memoria
+     * @return Future con la respuesta ya procesada
+     */
+    public CompletableFuture<String> generateResponseAsync(String prompt, Executor loadExecutor) {
+        CompletableFuture<ModelResponse> generation = generateAsync(prompt, loadExecutor, null);
+        CompletableFuture<String> result = generation.thenApply(response -> response.text);
+        Futures.propagateCancel(result, generation);
+        return result;
+    }
+
+    /**
+     * Genera una respuesta sin bloquear el hilo llamante, entregando los tokens según llegan
+     * @param prompt Texto de entrada para el modelo
+     * @param loadExecutor Executor donde cargar el modelo si aún no está en memoria
+     * @param listener Receptor de los tokens en bruto, o null para esperar la respuesta completa
+     * @return Future con la respuesta (texto ya procesado, tokens y tiempos); cancelarlo detiene la generación
+     */
+    public CompletableFuture<ModelResponse> generateAsync(String prompt, Executor loadExecutor,
+                                                          StreamListener listener) {
+        return generateAsync(prompt, loadExecutor, null, listener);
+    }
+
+    /**
+     * Igual que {@link #generateAsync(String, Executor, StreamListener)}, reutilizando la caché
+     * KV de los turnos anteriores de la conversación y aplicando los límites de la solicitud
+     * @param request Solicitud de la que se toman el formato obligatorio (grammar; la respuesta
+     *                se devuelve entonces tal cual, sin el formateo del tipo de modelo), el
+     *                máximo de tokens de salida, la temperatura, top_p y la conversación cuyo
+     *                slot se reutiliza, o null para los valores del tipo de modelo
+     */
+    public CompletableFuture<ModelResponse> generateAsync(String prompt, Executor loadExecutor, LlmRequest request,
+                                                          StreamListener listener) {
+        CompletableFuture<Void> ready = loadAsync(loadExecutor);
+        GenerationParams params = createGenerationParams(prompt);
+        OutputGrammar grammar = request != null ? request.grammar : null;
+        String cacheKey = request != null ? request.conversationId : null;
+        if (grammar != null) {
+            grammar.applyTo(params);
+        }
+        if (request != null) {
+            // El prompt se ajustó a la ventana del slot contando con esta reserva de salida
+            params.maxTokens = Math.min(params.maxTokens, request.maxTokens);
+            // El muestreo es el mismo que recibiría el backend online para esta solicitud
+            params.temperature = request.temperature;
+            params.topP = request.topP;
+        }
+
+        // Cancelar el resultado debe llegar hasta la llamada HTTP con llama.cpp
+        CompletableFuture<ModelResponse> generation = Futures.thenComposeCancellable(
+                ready, ignored -> serverPool.generateAsync(this, params, cacheKey, listener));
+        CompletableFuture<ModelResponse> result = generation.thenApply(response -> {
+            if (grammar == null) {
+                response.text = processResponse(response);
+            }
+            return response;
+        });
+        Futures.propagateCancel(result, generation);
+        return result;
+    }
+
+    /**
+     * Carga el modelo en segundo plano si aún no está en memoria (p. ej. para precalentarlo)
+     * @param loadExecutor Executor donde arrancar el servidor
+     * @return Future que se completa cuando el modelo puede responder
+     */
+    public CompletableFuture<Void> loadAsync(Executor loadExecutor) {
+        if (isModelLoaded()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> {
+            try {
+                loadModel();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, loadExecutor);
+    }
+
     /**
      * Carga el modelo en memoria
      * @throws Exception Si no se puede cargar el modelo
      */
     private synchronized void loadModel() throws Exception {
-        if (!modelLoaded) {
-            try {
-                llamaClient.startServer(this.name, LOAD_TIMEOUT);
-                modelLoaded = true;
-
-                // Registrar shutdown hook para limpiar
-                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                    try {
-                        llamaClient.stopServer();
-                    } catch (Exception e) {
-                        System.err.println("Error deteniendo servidor de modelo: " + e.getMessage());
-                    }
-                }));
-            } catch (TimeoutException e) {
-                throw new Exception("Tiempo de espera agotado cargando el modelo", e);
-            } catch (IOException e) {
-                throw new Exception("Error iniciando servidor de modelo local", e);
-            }
+        try {
+            serverPool.ensureStarted(this);
+        } catch (TimeoutException e) {
+            throw new Exception("Tiempo de espera agotado cargando el modelo", e);
+        } catch (IOException e) {
+            throw new Exception("Error iniciando servidor de modelo local", e);
         }
     }
 
@@ -92,11 +170,11 @@ public class LocalModel {
     private GenerationParams createGenerationParams(String prompt) {
         GenerationParams params = new GenerationParams();
         params.prompt = prompt;
+        params.maxTokens = getMaxOutputTokens();
 
         switch (type) {
             case CODER_33B:
                 params.temperature = 0.2;
-                params.maxTokens = 2048;
                 params.topP = 0.95;
                 params.repeatPenalty = 1.1;
                 params.stopSequences = new String[]{"\n\n", "```"};
@@ -104,13 +182,11 @@ public class LocalModel {
 
             case CHAT_7B:
                 params.temperature = 0.7;
-                params.maxTokens = 1024;
                 params.topP = 0.9;
                 break;
 
             default:
                 params.temperature = 0.5;
-                params.maxTokens = 512;
         }
 
         return params;
@@ -153,6 +229,10 @@ public class LocalModel {
         config.put("type", type.name());
         config.put("description", description);
         config.put("path", modelPath.toString());
+        if (!launchOverrides.isEmpty()) {
+            config.put("launch", launchOverrides.toJson());
+        }
+        config.putOpt("draft", draftModel);
 
         Files.writeString(
                 directory.resolve("config.json"),
@@ -166,13 +246,16 @@ public class LocalModel {
      */
     public static LocalModel fromConfig(String name, String configJson) {
         JSONObject config = new JSONObject(configJson);
-        return new LocalModel(
+        LocalModel model = new LocalModel(
                 config.optString("name", name),
                 config.getString("modelId"),
                 ModelType.valueOf(config.getString("type")),
                 config.getString("description"),
                 Path.of(config.optString("path", ""))
         );
+        model.launchOverrides = LaunchProfile.Overrides.fromJson(config.optJSONObject("launch"));
+        model.draftModel = config.optString("draft", null);
+        return model;
     }
 
     /**
@@ -189,17 +272,70 @@ public class LocalModel {
     public ModelType getType() { return type; }
     public String getDescription() { return description; }
     public Path getModelPath() { return modelPath; }
-    public boolean isModelLoaded() { return modelLoaded; }
+    public boolean isModelLoaded() { return serverPool.isRunning(name); }
+
+    /**
+     * Tokens de salida (n_predict) que genera el modelo según su tipo
+     */
+    public int getMaxOutputTokens() {
+        return switch (type) {
+            case CODER_33B -> 2048;
+            case CHAT_7B -> 1024;
+            default -> 512;
+        };
+    }
+
+    /**
+     * Parámetros de arranque de llama.cpp fijados para este modelo (el resto los elige el planificador)
+     */
+    public LaunchProfile.Overrides getLaunchOverrides() { return launchOverrides; }
+    public void setLaunchOverrides(LaunchProfile.Overrides overrides) {
+        this.launchOverrides = overrides != null ? overrides : new LaunchProfile.Overrides();
+    }
+
+    /**
+     * Nombre del modelo borrador (su GGUF está junto al del modelo), o null si no se usa.
+     * Debe compartir tokenizador con este modelo; si no, se arranca sin él.
+     */
+    public String getDraftModel() { return draftModel; }
+    public void setDraftModel(String draftModel) {
+        this.draftModel = draftModel == null || draftModel.isBlank() ? null : draftModel;
+    }
+
+    /**
+     * Indica si algún servidor del modelo aceptaría ahora una solicitud (su cortocircuito no está abierto)
+     */
+    public boolean isAvailable() { return serverPool.isAvailable(name); }
 
     /**
-     * Clase para parámetros de generación
+     * Clase para parámetros de generación (se serializa con los nombres de /completion de llama.cpp)
      */
     public static class GenerationParams {
         public String prompt;
         public double temperature = 0.7;
+        @JsonProperty("n_predict")
         public int maxTokens = 512;
+        @JsonProperty("top_p")
         public double topP = 0.9;
+        @JsonProperty("repeat_penalty")
         public double repeatPenalty = 1.0;
+        @JsonProperty("stop")
         public String[] stopSequences = new String[0];
+        // Con stream = true llama.cpp envía cada token como un evento data:
+        public boolean stream = false;
+        // Reutilizar la caché KV del slot para el prefijo que coincide con la solicitud anterior
+        @JsonProperty("cache_prompt")
+        public boolean cachePrompt = true;
+        // Slot del servidor que atiende la solicitud (-1 para cualquiera libre)
+        @JsonProperty("id_slot")
+        public int slot = -1;
+        // Gramática GBNF que restringe la salida (ver OutputGrammar), o null
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String grammar;
+        // Esquema JSON que llama.cpp convierte en gramática, o null
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        @JsonRawValue
+        @JsonProperty("json_schema")
+        public String jsonSchema;
     }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package es.furynocturntv.mcreator.deepseek.models;
 
+import es.furynocturntv.mcreator.deepseek.services.LlamaServerPool;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -60,6 +62,24 @@ public class LocalModelManager {
         return Optional.ofNullable(models.get(name));
     }
 
+    /**
+     * Primer modelo que ya está cargado en memoria y puede responder sin esperar a la carga
+     * (se omiten los que tienen el cortocircuito abierto)
+     */
+    public Optional<LocalModel> findLoadedModel() {
+        return models.values().stream()
+                .filter(LocalModel::isModelLoaded)
+                .filter(LocalModel::isAvailable)
+                .findFirst();
+    }
+
+    /**
+     * Detiene los servidores llama.cpp de todos los modelos
+     */
+    public void shutdown() {
+        LlamaServerPool.getInstance().shutdown();
+    }
+
     public List<String> getAvailableModels() {
         return new ArrayList<>(models.keySet());
     }
@@ -12,6 +12,8 @@ import java.nio.file.Paths;
 public class ModelDownloader {
     private static final String DEFAULT_MODEL = "deepseek-coder-33b-instruct";
     private static final String MODEL_URL = "https://huggingface.co/TheBloke/deepseek-coder-33B-instruct-GGUF/resolve/main/deepseek-coder-33b-instruct.Q4_K_M.gguf";
+    // Misma familia y tokenizador que el modelo por defecto: sirve de borrador para la decodificación especulativa
+    public static final String DEFAULT_DRAFT_MODEL = "deepseek-coder-1.3b-instruct";
 
     public static Path downloadDefaultModel(Path modelsDir) throws IOException {
         if (!Files.exists(modelsDir)) {
@@ -65,6 +67,13 @@ public class ModelDownloader {
         }
     }
 
+    /**
+     * Indica si el borrador por defecto está en el directorio de modelos (no se descarga solo)
+     */
+    public static boolean hasDefaultDraftModel(Path modelsDir) {
+        return Files.exists(modelsDir.resolve(DEFAULT_DRAFT_MODEL + ".gguf"));
+    }
+
     public static Path getDefaultModelPath() {
         return Paths.get(System.getProperty("user.home"), ".deepseek-mcreator", "models", DEFAULT_MODEL + ".gguf");
     }
@@ -1,8 +1,57 @@
 package es.furynocturntv.mcreator.deepseek.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Respuesta de /completion de llama.cpp. En streaming cada evento trae un fragmento en
+ * "content" y el último (stop = true) los contadores y tiempos de toda la generación.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class ModelResponse {
-    public String text;
+    @JsonProperty("content")
+    public String text = "";
+    @JsonProperty("tokens_predicted")
     public int tokensGenerated;
+    @JsonProperty("tokens_evaluated")
+    public int tokensEvaluated;
     public long inferenceTimeMs;
     public boolean truncated;
-}
\ No newline at end of file
+    public boolean stop;
+    public Timings timings;
+
+    /**
+     * Tiempos que informa llama.cpp para el prompt y la generación
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Timings {
+        @JsonProperty("prompt_ms")
+        public double promptMs;
+        @JsonProperty("prompt_per_second")
+        public double promptPerSecond;
+        @JsonProperty("predicted_ms")
+        public double predictedMs;
+        @JsonProperty("predicted_per_second")
+        public double predictedPerSecond;
+        // Tokens propuestos por el modelo borrador y cuántos aceptó el principal
+        @JsonProperty("draft_n")
+        public int draftTokens;
+        @JsonProperty("draft_n_accepted")
+        public int draftAccepted;
+    }
+
+    /**
+     * Tokens generados por segundo, o 0 si el servidor no informó los tiempos
+     */
+    public double getTokensPerSecond() {
+        return timings != null ? timings.predictedPerSecond : 0;
+    }
+
+    /**
+     * Fracción de los tokens del borrador que aceptó el modelo principal, o -1 sin borrador
+     */
+    public double getDraftAcceptanceRate() {
+        return timings != null && timings.draftTokens > 0
+                ? (double) timings.draftAccepted / timings.draftTokens : -1;
+    }
+}
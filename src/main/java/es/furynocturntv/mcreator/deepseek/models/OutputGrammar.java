@@ -0,0 +1,158 @@
+package es.furynocturntv.mcreator.deepseek.models;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Formato obligatorio de la respuesta de un modelo local. llama.cpp solo deja generar los
+ * tokens que encajan en una gramática GBNF o en un esquema JSON (que convierte en gramática),
+ * así que la salida se puede leer sin adivinar dónde empieza el código ni repetir la solicitud.
+ *
+ * Las instrucciones describen el formato con palabras: los backends online no aplican la
+ * gramática y el modelo local responde mejor si sabe qué se espera de él.
+ */
+public class OutputGrammar {
+    /**
+     * Un único bloque de código Java entre ```, sin texto alrededor
+     */
+    public static final OutputGrammar CODE_BLOCK = gbnf("code-block", """
+            root ::= "```" lang? "\\n" code "```"
+            lang ::= [a-z]+
+            code ::= ([^`] | "`" [^`] | "``" [^`])*
+            """, "Responde únicamente con un bloque de código Java entre ```, sin explicaciones.");
+
+    /**
+     * Cambio de código sobre un archivo: ruta, código completo y una explicación breve
+     */
+    public static final OutputGrammar CODE_EDIT = jsonSchema("code-edit", """
+            {
+              "type": "object",
+              "properties": {
+                "file": {"type": "string"},
+                "code": {"type": "string"},
+                "explanation": {"type": "string"}
+              },
+              "required": ["file", "code", "explanation"],
+              "additionalProperties": false
+            }
+            """, "Responde únicamente con un objeto JSON con los campos \"file\" (ruta del archivo), "
+            + "\"code\" (código completo) y \"explanation\" (una frase).");
+
+    /**
+     * Especificación de un elemento de MCreator: tipo, nombre de registro y propiedades
+     */
+    public static final OutputGrammar ELEMENT_SPEC = jsonSchema("element-spec", """
+            {
+              "type": "object",
+              "properties": {
+                "elementType": {"enum": ["block", "item", "tool", "armor", "food", "entity", "procedure",
+                                         "recipe", "biome", "dimension", "enchantment", "potion"]},
+                "name": {"type": "string", "pattern": "^[A-Za-z][A-Za-z0-9_]*$"},
+                "description": {"type": "string"},
+                "properties": {
+                  "type": "object",
+                  "additionalProperties": {"type": ["string", "number", "boolean"]}
+                }
+              },
+              "required": ["elementType", "name", "properties"],
+              "additionalProperties": false
+            }
+            """, "Responde únicamente con un objeto JSON con los campos \"elementType\", \"name\" "
+            + "(sin espacios), \"description\" y \"properties\" (propiedades del elemento).");
+
+    /**
+     * Clasificación de un error de compilación con su corrección
+     */
+    public static final OutputGrammar ERROR_CLASSIFICATION = jsonSchema("error-classification", """
+            {
+              "type": "object",
+              "properties": {
+                "category": {"enum": ["MISSING_SYMBOL", "SYNTAX", "TYPE_MISMATCH", "MISSING_DEPENDENCY",
+                                      "MCREATOR_API", "OTHER"]},
+                "file": {"type": "string"},
+                "line": {"type": "integer"},
+                "explanation": {"type": "string"},
+                "fix": {"type": "string"}
+              },
+              "required": ["category", "explanation", "fix"],
+              "additionalProperties": false
+            }
+            """, "Responde únicamente con un objeto JSON con los campos \"category\", \"file\", \"line\", "
+            + "\"explanation\" y \"fix\" (código o pasos para corregirlo).");
+
+    private final String name;
+    private final String gbnf;
+    private final String jsonSchema;
+    private final String instructions;
+
+    private OutputGrammar(String name, String gbnf, String jsonSchema, String instructions) {
+        this.name = name;
+        this.gbnf = gbnf;
+        this.jsonSchema = jsonSchema;
+        this.instructions = instructions;
+    }
+
+    /**
+     * Formato definido con una gramática GBNF de llama.cpp
+     */
+    public static OutputGrammar gbnf(String name, String grammar, String instructions) {
+        return new OutputGrammar(name, grammar, null, instructions);
+    }
+
+    /**
+     * Formato definido con un esquema JSON
+     * @throws JSONException Si el esquema no es JSON válido
+     */
+    public static OutputGrammar jsonSchema(String name, String schema, String instructions) {
+        return new OutputGrammar(name, null, new JSONObject(schema).toString(), instructions);
+    }
+
+    /**
+     * Restringe la generación con esta gramática. Las secuencias de parada del tipo de modelo
+     * se quitan: cortarían la salida (p. ej. en la primera ```) y la gramática ya marca el final.
+     */
+    public void applyTo(LocalModel.GenerationParams params) {
+        params.grammar = gbnf;
+        params.jsonSchema = jsonSchema;
+        params.stopSequences = new String[0];
+    }
+
+    /**
+     * Lee una respuesta generada con un esquema JSON
+     * @throws JSONException Si el texto no es un objeto JSON (p. ej. de un backend que no aplica el esquema)
+     */
+    public JSONObject parse(String text) {
+        String trimmed = text.trim();
+        int start = trimmed.indexOf('{');
+        int end = trimmed.lastIndexOf('}');
+        if (start < 0 || end < start) {
+            throw new JSONException("Expected a JSON object for " + name + ": " + trimmed);
+        }
+        return new JSONObject(trimmed.substring(start, end + 1));
+    }
+
+    /**
+     * Lee una respuesta generada con {@link #CODE_BLOCK}: el código del primer bloque entre ```,
+     * sin la etiqueta de lenguaje. Los backends online pueden añadir texto alrededor; si no hay
+     * bloque se devuelve el texto completo.
+     */
+    public String parseCode(String text) {
+        int open = text.indexOf("```");
+        if (open < 0) {
+            return text.trim();
+        }
+        int close = text.indexOf("```", open + 3);
+        int newline = text.indexOf('\n', open);
+        // Sin salto de línea dentro del bloque no hay etiqueta de lenguaje que quitar
+        int start = newline >= 0 && (close < 0 || newline < close) ? newline + 1 : open + 3;
+        return text.substring(start, close < 0 ? text.length() : close);
+    }
+
+    public String getName() { return name; }
+    public String getInstructions() { return instructions; }
+
+    /**
+     * Indica si la respuesta es un objeto JSON (los backends online pueden pedir modo JSON)
+     */
+    public boolean isJson() { return jsonSchema != null; }
+}
@@ -0,0 +1,27 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+/**
+ * Resultado de un prompt dentro de un lote
+ */
+public class BatchResult {
+    public final int index;
+    public final String prompt;
+    public final String response;
+    public final String error;
+    public final boolean fromCache;
+    public final long elapsedMillis;
+
+    public BatchResult(int index, String prompt, String response, String error, boolean fromCache,
+                       long elapsedMillis) {
+        this.index = index;
+        this.prompt = prompt;
+        this.response = response;
+        this.error = error;
+        this.fromCache = fromCache;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -0,0 +1,142 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import es.furynocturntv.mcreator.deepseek.utils.Futures;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Ejecución de un lote con concurrencia acotada. No ocupa hilos: cada solicitud que
+ * termina lanza la siguiente pendiente, de modo que nunca hay más de maxConcurrency en curso.
+ */
+class BatchRun {
+    private final List<String> prompts;
+    private final int maxConcurrency;
+    private final Function<String, CompletableFuture<String>> sender;
+    private final Predicate<String> cached;
+    private final Consumer<BatchResult> onResult;
+
+    private final BatchResult[] results;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger remaining;
+    private final Set<CompletableFuture<String>> running = ConcurrentHashMap.newKeySet();
+    private final CompletableFuture<List<BatchResult>> future = new CompletableFuture<>();
+
+    /**
+     * @param sender Lanza la solicitud de un prompt
+     * @param cached Indica si un prompt ya tiene respuesta en caché
+     * @param onResult Recibe cada resultado en cuanto termina, o null
+     */
+    BatchRun(List<String> prompts, int maxConcurrency, Function<String, CompletableFuture<String>> sender,
+             Predicate<String> cached, Consumer<BatchResult> onResult) {
+        this.prompts = List.copyOf(prompts);
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.sender = sender;
+        this.cached = cached;
+        this.onResult = onResult;
+        this.results = new BatchResult[prompts.size()];
+        this.remaining = new AtomicInteger(prompts.size());
+
+        // Cancelar el lote cancela lo que está en curso y evita lanzar más
+        future.whenComplete((value, error) -> {
+            if (future.isCancelled()) {
+                running.forEach(request -> request.cancel(true));
+            }
+        });
+    }
+
+    CompletableFuture<List<BatchResult>> start() {
+        if (prompts.isEmpty()) {
+            future.complete(List.of());
+            return future;
+        }
+        for (int i = 0; i < Math.min(maxConcurrency, prompts.size()); i++) {
+            launchNext();
+        }
+        return future;
+    }
+
+    /**
+     * Lanza el siguiente prompt pendiente. Las respuestas ya disponibles (caché) se
+     * procesan en el mismo bucle para no encadenar llamadas recursivas en lotes grandes.
+     */
+    private void launchNext() {
+        while (true) {
+            int index = next.getAndIncrement();
+            if (index >= prompts.size() || future.isDone()) {
+                return;
+            }
+
+            String prompt = prompts.get(index);
+            boolean fromCache = cached.test(prompt);
+            long start = System.nanoTime();
+
+            CompletableFuture<String> request;
+            try {
+                request = sender.apply(prompt);
+            } catch (RuntimeException e) {
+                request = CompletableFuture.failedFuture(e);
+            }
+
+            if (request.isDone()) {
+                if (record(toResult(index, prompt, request, fromCache, start))) {
+                    return;
+                }
+                continue;
+            }
+
+            running.add(request);
+            if (future.isCancelled()) {
+                request.cancel(true);
+            }
+
+            CompletableFuture<String> launched = request;
+            request.whenComplete((response, error) -> {
+                running.remove(launched);
+                if (!record(toResult(index, prompt, launched, fromCache, start))) {
+                    launchNext();
+                }
+            });
+            return;
+        }
+    }
+
+    private static BatchResult toResult(int index, String prompt, CompletableFuture<String> request,
+                                        boolean fromCache, long start) {
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        try {
+            return new BatchResult(index, prompt, request.join(), null, fromCache, elapsed);
+        } catch (RuntimeException e) {
+            return new BatchResult(index, prompt, null, String.valueOf(Futures.unwrap(e).getMessage()),
+                    fromCache, elapsed);
+        }
+    }
+
+    /**
+     * Guarda un resultado y lo notifica
+     * @return true si el lote ha terminado (o se canceló) y no hay que lanzar más
+     */
+    private boolean record(BatchResult result) {
+        if (future.isDone()) {
+            return true;
+        }
+
+        results[result.index] = result;
+        if (onResult != null) {
+            onResult.accept(result);
+        }
+
+        if (remaining.decrementAndGet() == 0) {
+            future.complete(Arrays.asList(results));
+            return true;
+        }
+        return false;
+    }
+}
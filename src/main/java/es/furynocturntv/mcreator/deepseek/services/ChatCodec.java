@@ -0,0 +1,212 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Codificador en streaming (Jackson) de las solicitudes y respuestas de chat.
+ * Las solicitudes se escriben directamente en el sink de OkHttp y las respuestas se leen
+ * token a token desde el source, sin construir el JSON completo en memoria.
+ */
+final class ChatCodec {
+    private static final MediaType JSON = MediaType.get("application/json");
+    // El sink y el source pertenecen a OkHttp: Jackson no debe cerrarlos
+    private static final JsonFactory FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    private ChatCodec() {
+    }
+
+    /**
+     * Bloque usage de la respuesta. Los campos ausentes quedan a -1
+     */
+    static class Usage {
+        int promptTokens = -1;
+        int completionTokens = -1;
+        int cacheHitTokens = -1;
+        int cacheMissTokens = -1;
+    }
+
+    /**
+     * Contenido de una respuesta completa o de un fragmento de stream
+     */
+    static class Chunk {
+        String content = "";
+        Usage usage;
+    }
+
+    /**
+     * Cuerpo de la solicitud; se serializa en el momento de enviarlo (y en cada reintento de OkHttp)
+     */
+    static RequestBody requestBody(LlmRequest request, boolean stream) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return JSON;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                try (JsonGenerator generator = FACTORY.createGenerator(sink.outputStream(), JsonEncoding.UTF8)) {
+                    writeRequest(generator, request, stream);
+                }
+            }
+        };
+    }
+
+    private static void writeRequest(JsonGenerator generator, LlmRequest request, boolean stream)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("model", request.model);
+
+        generator.writeArrayFieldStart("messages");
+        for (ChatMessage message : request.messages) {
+            generator.writeStartObject();
+            generator.writeStringField("role", message.role);
+            generator.writeStringField("content", message.content);
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+
+        generator.writeNumberField("max_tokens", request.maxTokens);
+        generator.writeNumberField("temperature", request.temperature);
+        generator.writeNumberField("top_p", request.topP);
+        if (request.grammar != null && request.grammar.isJson()) {
+            // La API no acepta gramáticas; el modo JSON al menos garantiza un objeto válido
+            generator.writeObjectFieldStart("response_format");
+            generator.writeStringField("type", "json_object");
+            generator.writeEndObject();
+        }
+        if (stream) {
+            generator.writeBooleanField("stream", true);
+            generator.writeObjectFieldStart("stream_options");
+            generator.writeBooleanField("include_usage", true);
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Lee una respuesta completa (choices[0].message.content y usage) directamente del stream
+     */
+    static Chunk readResponse(InputStream body) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(body)) {
+            return readChunk(parser, "message");
+        }
+    }
+
+    /**
+     * Lee el JSON de un evento SSE (choices[0].delta.content y usage si lo trae)
+     */
+    static Chunk readStreamChunk(String data) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(data)) {
+            return readChunk(parser, "delta");
+        }
+    }
+
+    private static Chunk readChunk(JsonParser parser, String contentField) throws IOException {
+        Chunk chunk = new Chunk();
+        expect(parser.nextToken(), JsonToken.START_OBJECT);
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            if ("choices".equals(field) && value == JsonToken.START_ARRAY) {
+                readChoices(parser, contentField, chunk);
+            } else if ("usage".equals(field) && value == JsonToken.START_OBJECT) {
+                chunk.usage = readUsage(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Solo interesa la primera opción; el resto se salta sin materializarlo
+     */
+    private static void readChoices(JsonParser parser, String contentField, Chunk chunk) throws IOException {
+        boolean first = true;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (!first || parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            first = false;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (contentField.equals(field) && value == JsonToken.START_OBJECT) {
+                    readContent(parser, chunk);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static void readContent(JsonParser parser, Chunk chunk) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("content".equals(field) && value == JsonToken.VALUE_STRING) {
+                chunk.content = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static Usage readUsage(JsonParser parser) throws IOException {
+        Usage usage = new Usage();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value != JsonToken.VALUE_NUMBER_INT) {
+                parser.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case "prompt_tokens" -> usage.promptTokens = parser.getIntValue();
+                case "completion_tokens" -> usage.completionTokens = parser.getIntValue();
+                case "prompt_cache_hit_tokens" -> usage.cacheHitTokens = parser.getIntValue();
+                case "prompt_cache_miss_tokens" -> usage.cacheMissTokens = parser.getIntValue();
+                default -> {
+                }
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * Respuesta del backend con el texto completo y el bloque usage, si llegó
+     */
+    static LlmResult toResult(String text, Usage usage) {
+        LlmResult result = new LlmResult(text);
+        if (usage != null) {
+            result.promptTokens = usage.promptTokens;
+            result.completionTokens = usage.completionTokens;
+            result.cacheHitTokens = usage.cacheHitTokens;
+            result.cacheMissTokens = usage.cacheMissTokens;
+        }
+        return result;
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Malformed API response: expected " + expected + " but got " + actual);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+/**
+ * Resultado de una generación junto con su consumo de tokens y su costo real
+ */
+public class ChatCompletion {
+    public final String text;
+    public final int promptTokens;
+    public final int completionTokens;
+    // Tokens de prompt servidos desde la caché de contexto de la API
+    public final int cachedPromptTokens;
+    public final double cost;
+
+    public ChatCompletion(String text, int promptTokens, int completionTokens, int cachedPromptTokens,
+                          double cost) {
+        this.text = text;
+        this.promptTokens = promptTokens;
+        this.completionTokens = completionTokens;
+        this.cachedPromptTokens = cachedPromptTokens;
+        this.cost = cost;
+    }
+}
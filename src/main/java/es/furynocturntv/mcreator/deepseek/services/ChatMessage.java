@@ -0,0 +1,52 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import java.util.List;
+
+/**
+ * Mensaje de chat en el formato de la API (system, user o assistant)
+ */
+public class ChatMessage {
+    public static final String SYSTEM = "system";
+    public static final String USER = "user";
+    public static final String ASSISTANT = "assistant";
+
+    public final String role;
+    public final String content;
+
+    public ChatMessage(String role, String content) {
+        this.role = role;
+        this.content = content;
+    }
+
+    public static ChatMessage system(String content) {
+        return new ChatMessage(SYSTEM, content);
+    }
+
+    public static ChatMessage user(String content) {
+        return new ChatMessage(USER, content);
+    }
+
+    public static ChatMessage assistant(String content) {
+        return new ChatMessage(ASSISTANT, content);
+    }
+
+    /**
+     * Convierte una conversación en un único prompt para modelos locales de completado.
+     * Un único mensaje de usuario se envía tal cual.
+     */
+    public static String toTranscript(List<ChatMessage> messages) {
+        if (messages.size() == 1 && USER.equals(messages.get(0).role)) {
+            return messages.get(0).content;
+        }
+
+        StringBuilder transcript = new StringBuilder();
+        for (ChatMessage message : messages) {
+            switch (message.role) {
+                case SYSTEM -> transcript.append(message.content).append("\n\n");
+                case ASSISTANT -> transcript.append("### Response:\n").append(message.content).append("\n\n");
+                default -> transcript.append("### Instruction:\n").append(message.content).append("\n\n");
+            }
+        }
+        return transcript.append("### Response:\n").toString();
+    }
+}
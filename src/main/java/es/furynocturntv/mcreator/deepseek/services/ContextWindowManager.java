@@ -0,0 +1,132 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import es.furynocturntv.mcreator.deepseek.utils.PluginLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.IntSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Construye los mensajes de cada solicitud de una conversación dentro de un presupuesto
+ * de tokens. Los turnos más recientes se envían literalmente; los que salen de la ventana
+ * se condensan en un resumen que se guarda en la sesión y solo se amplía con los turnos
+ * nuevos que van quedando fuera, de modo que el prompt no crece con la conversación.
+ */
+public class ContextWindowManager {
+    // Tamaño máximo del resumen de los turnos antiguos
+    static final int SUMMARY_MAX_TOKENS = 512;
+
+    private static final String SUMMARY_INSTRUCTIONS =
+            "Resume la siguiente conversación entre un usuario y un asistente de programación para MCreator. "
+                    + "Conserva decisiones, nombres de elementos, fragmentos de código relevantes y preguntas pendientes. "
+                    + "Responde solo con el resumen, en menos de 300 palabras.";
+    private static final String SUMMARY_PREFIX = "Resumen de la conversación anterior:\n";
+
+    private final TokenizerService tokenizer;
+    private final IntSupplier historyBudget;
+    private final ToIntFunction<String> promptBudget;
+    private final BiFunction<String, List<ChatMessage>, CompletableFuture<String>> summarizer;
+
+    /**
+     * @param tokenizer Contador de tokens
+     * @param historyBudget Tokens máximos para el historial (resumen + turnos literales)
+     * @param promptBudget Tokens de entrada que admite cada modelo tras reservar su salida; el
+     *                     historial nunca pasa de ahí aunque historyBudget sea mayor
+     * @param summarizer Envía los mensajes indicados al modelo y devuelve el resumen
+     */
+    public ContextWindowManager(TokenizerService tokenizer, IntSupplier historyBudget,
+                                ToIntFunction<String> promptBudget,
+                                BiFunction<String, List<ChatMessage>, CompletableFuture<String>> summarizer) {
+        this.tokenizer = tokenizer;
+        this.historyBudget = historyBudget;
+        this.promptBudget = promptBudget;
+        this.summarizer = summarizer;
+    }
+
+    /**
+     * Prepara los mensajes para un nuevo prompt de la conversación, resumiendo antes
+     * los turnos que ya no caben si aún no están en el resumen
+     * @return Future con resumen (si lo hay), turnos recientes y el prompt nuevo
+     */
+    public CompletableFuture<List<ChatMessage>> buildMessages(ConversationSession session, String modelName,
+                                                              String prompt) {
+        List<ConversationSession.Turn> turns = session.getTurns();
+        int firstVerbatim = Math.max(firstVerbatimTurn(turns, modelName, prompt), session.getSummarizedTurns());
+
+        if (firstVerbatim <= session.getSummarizedTurns()) {
+            return CompletableFuture.completedFuture(
+                    assemble(session.getSummary(), turns.subList(firstVerbatim, turns.size()), prompt));
+        }
+
+        // Condensar solo los turnos que acaban de salir de la ventana junto al resumen previo
+        String previousSummary = session.getSummary();
+        List<ConversationSession.Turn> evicted = turns.subList(session.getSummarizedTurns(), firstVerbatim);
+
+        return summarizer.apply(modelName, summaryRequest(previousSummary, evicted))
+                .handle((summary, error) -> {
+                    if (error != null) {
+                        // Sin resumen el historial sigue acotado: los turnos antiguos se descartan y
+                        // se dan por resumidos para no repetir la llamada en cada turno
+                        PluginLogger.log(String.format("No se pudo resumir la conversación, se descartan %d turnos: %s",
+                                evicted.size(), error.getMessage()), PluginLogger.Level.WARN);
+                        session.updateSummary(previousSummary, firstVerbatim);
+                        return assemble(previousSummary, turns.subList(firstVerbatim, turns.size()), prompt);
+                    }
+
+                    String bounded = tokenizer.truncate(modelName, summary.trim(), SUMMARY_MAX_TOKENS);
+                    session.updateSummary(bounded, firstVerbatim);
+                    return assemble(session.getSummary(), turns.subList(firstVerbatim, turns.size()), prompt);
+                });
+    }
+
+    /**
+     * Índice del turno más antiguo que cabe literalmente, recorriendo desde el más reciente.
+     * Se reserva espacio para el resumen y para el prompt nuevo dentro de la ventana del modelo.
+     */
+    private int firstVerbatimTurn(List<ConversationSession.Turn> turns, String modelName, String prompt) {
+        int windowBudget = promptBudget.applyAsInt(modelName) - tokenizer.countMessageTokens(modelName, prompt);
+        int available = Math.min(historyBudget.getAsInt(), windowBudget) - SUMMARY_MAX_TOKENS;
+        int used = 0;
+        for (int i = turns.size() - 1; i >= 0; i--) {
+            ConversationSession.Turn turn = turns.get(i);
+            used += tokenizer.countMessageTokens(modelName, turn.user)
+                    + tokenizer.countMessageTokens(modelName, turn.assistant);
+            if (used > available) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private List<ChatMessage> summaryRequest(String previousSummary, List<ConversationSession.Turn> evicted) {
+        StringBuilder transcript = new StringBuilder();
+        if (!previousSummary.isEmpty()) {
+            transcript.append(SUMMARY_PREFIX).append(previousSummary).append("\n\n");
+        }
+        for (ConversationSession.Turn turn : evicted) {
+            transcript.append("Usuario: ").append(turn.user).append("\n")
+                    .append("Asistente: ").append(turn.assistant).append("\n\n");
+        }
+
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(ChatMessage.system(SUMMARY_INSTRUCTIONS));
+        messages.add(ChatMessage.user(transcript.toString()));
+        return messages;
+    }
+
+    private List<ChatMessage> assemble(String summary, List<ConversationSession.Turn> recent, String prompt) {
+        List<ChatMessage> messages = new ArrayList<>();
+        if (!summary.isEmpty()) {
+            messages.add(ChatMessage.system(SUMMARY_PREFIX + summary));
+        }
+        for (ConversationSession.Turn turn : recent) {
+            messages.add(ChatMessage.user(turn.user));
+            messages.add(ChatMessage.assistant(turn.assistant));
+        }
+        messages.add(ChatMessage.user(prompt));
+        return messages;
+    }
+}
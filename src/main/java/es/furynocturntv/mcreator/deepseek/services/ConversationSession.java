@@ -0,0 +1,64 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Conversación de varios turnos. Guarda todos los turnos y un resumen en caché
+ * de los más antiguos, que ContextWindowManager amplía según salen de la ventana.
+ */
+public class ConversationSession {
+    private final String id = UUID.randomUUID().toString();
+    private final List<Turn> turns = new ArrayList<>();
+
+    // Resumen de los turnos [0, summarizedTurns)
+    private String summary = "";
+    private int summarizedTurns = 0;
+
+    public String getId() {
+        return id;
+    }
+
+    public synchronized void addTurn(String userMessage, String assistantMessage) {
+        turns.add(new Turn(userMessage, assistantMessage));
+    }
+
+    public synchronized List<Turn> getTurns() {
+        return new ArrayList<>(turns);
+    }
+
+    public synchronized String getSummary() {
+        return summary;
+    }
+
+    public synchronized int getSummarizedTurns() {
+        return summarizedTurns;
+    }
+
+    /**
+     * Sustituye el resumen; solo se acepta si cubre más turnos que el actual
+     */
+    synchronized void updateSummary(String summary, int summarizedTurns) {
+        if (summarizedTurns > this.summarizedTurns) {
+            this.summary = summary;
+            this.summarizedTurns = summarizedTurns;
+        }
+    }
+
+    public synchronized void clear() {
+        turns.clear();
+        summary = "";
+        summarizedTurns = 0;
+    }
+
+    public static class Turn {
+        public final String user;
+        public final String assistant;
+
+        public Turn(String user, String assistant) {
+            this.user = user;
+            this.assistant = assistant;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import es.furynocturntv.mcreator.deepseek.api.ApiKeyManager;
+import es.furynocturntv.mcreator.deepseek.utils.RateLimiter;
+
+/**
+ * API oficial de DeepSeek. Es compatible con OpenAI y además informa en usage de los
+ * tokens servidos desde su caché de contexto (prompt_cache_hit_tokens).
+ */
+public class DeepSeekBackend extends OpenAiCompatibleBackend {
+    public static final String BASE_URL = "https://api.deepseek.com/v1";
+
+    /**
+     * @param name Nombre del backend (clave del limitador y del cortocircuito)
+     */
+    public DeepSeekBackend(String name, ApiKeyManager apiKeyManager, RateLimiter rateLimiter) {
+        super(name, BASE_URL, apiKeyManager::getApiKey, HttpRuntime.getInstance().getApiClient(), rateLimiter);
+    }
+}
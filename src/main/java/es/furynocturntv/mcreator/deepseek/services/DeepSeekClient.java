@@ -5,64 +5,152 @@ import es.furynocturntv.mcreator.deepseek.models.LocalModel;
 import es.furynocturntv.mcreator.deepseek.models.LocalModelManager;
 import es.furynocturntv.mcreator.deepseek.models.ModelDownloader;
 import es.furynocturntv.mcreator.deepseek.models.ModelType;
+import es.furynocturntv.mcreator.deepseek.models.OutputGrammar;
 import es.furynocturntv.mcreator.deepseek.utils.CacheEntry;
+import es.furynocturntv.mcreator.deepseek.utils.Futures;
+import es.furynocturntv.mcreator.deepseek.utils.LatencyTracker;
+import es.furynocturntv.mcreator.deepseek.utils.PluginLogger;
+import es.furynocturntv.mcreator.deepseek.utils.RateLimiter;
+import es.furynocturntv.mcreator.deepseek.utils.RequestScheduler;
+import es.furynocturntv.mcreator.deepseek.utils.RequestScheduler.Priority;
 import es.furynocturntv.mcreator.deepseek.utils.ResponseCache;
+import es.furynocturntv.mcreator.deepseek.utils.RetryPolicy;
 import es.furynocturntv.mcreator.deepseek.utils.SettingsManager;
-import okhttp3.*;
-import org.json.*;
+import es.furynocturntv.mcreator.deepseek.utils.TaskExecutor;
 
 import java.io.File;
-import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class DeepSeekClient {
     // Configuración de la API
-    private static final String API_URL = "https://api.deepseek.com/v1/chat/completions";
     private static final int MAX_TOKENS = 4096;
     private static final double COST_PER_INPUT_TOKEN = 0.000002;
+    private static final double COST_PER_CACHED_INPUT_TOKEN = 0.0000005;
     private static final double COST_PER_OUTPUT_TOKEN = 0.000003;
+    private static final String ONLINE_BACKEND = "online";
+    private static final String LOCAL_BACKEND = "local";
+    // Muestras mínimas de latencia antes de empezar a cubrir solicitudes con el modelo local
+    private static final int MIN_HEDGE_SAMPLES = 20;
 
     // Componentes principales
     private final ApiKeyManager apiKeyManager;
     private final SettingsManager settingsManager;
     private final LocalModelManager localModelManager;
     private final ResponseCache responseCache;
-    private final ExecutorService executorService;
-    private final OkHttpClient httpClient;
+    private final RateLimiter rateLimiter;
+    private final RequestScheduler scheduler = RequestScheduler.getInstance();
+    private final RetryPolicy retryPolicy;
+    private final TokenizerService tokenizer;
+    private final ContextWindowManager contextWindowManager;
+    private final PromptAssembler promptAssembler = new PromptAssembler();
+    private final PromptCacheStats promptCacheStats = new PromptCacheStats();
+    private final TaskExecutor.TaskGroup localModelTasks;
+    private final TaskExecutor.TaskGroup hedgeTasks;
+    private final LlmBackend onlineBackend;
+    // Backend llama.cpp de cada modelo local, creado en su primera solicitud
+    private final ConcurrentMap<String, LlmBackend> localBackends = new ConcurrentHashMap<>();
+
+    // Solicitudes en curso indexadas por clave de caché
+    private final ConcurrentMap<String, InFlightRequest> inFlightRequests = new ConcurrentHashMap<>();
+
+    // Latencia hasta el primer token en streaming de la API por modelo, desde que se envía la solicitud
+    private final ConcurrentMap<String, LatencyTracker> firstTokenLatency = new ConcurrentHashMap<>();
+
+    // Solicitudes lanzadas mediante submitRequest que siguen en curso
+    private final Set<RequestHandle> activeRequests = ConcurrentHashMap.newKeySet();
 
     // Estado del cliente
-    private volatile boolean requestCancelled = false;
-    private double currentSessionCost = 0;
-    private long lastRequestTimestamp = 0;
+    private volatile double currentSessionCost = 0;
+    // Estimación de las respuestas en streaming que aún no han recibido el bloque usage
+    private final DoubleAdder pendingStreamCost = new DoubleAdder();
 
     public DeepSeekClient(ApiKeyManager apiKeyManager, SettingsManager settingsManager) {
+        this(apiKeyManager, settingsManager, true);
+    }
+
+    /**
+     * @param loadDefaultLocalModel Si es false no se prepara (ni descarga) el modelo local por
+     *                              defecto; útil para ejecuciones sin interfaz que solo usan la API
+     */
+    public DeepSeekClient(ApiKeyManager apiKeyManager, SettingsManager settingsManager,
+                          boolean loadDefaultLocalModel) {
+        this(apiKeyManager, settingsManager, loadDefaultLocalModel, null);
+    }
+
+    /**
+     * @param onlineBackendFactory Crea el backend de las solicitudes online a partir del limitador
+     *                             del cliente (al que debe informar de 429 y cabeceras de límite),
+     *                             o null para elegirlo según la configuración
+     */
+    public DeepSeekClient(ApiKeyManager apiKeyManager, SettingsManager settingsManager,
+                          boolean loadDefaultLocalModel, Function<RateLimiter, LlmBackend> onlineBackendFactory) {
         this.apiKeyManager = apiKeyManager;
         this.settingsManager = settingsManager;
         this.localModelManager = new LocalModelManager();
         this.responseCache = new ResponseCache(TimeUnit.HOURS.toMillis(1), 1000);
-
-        // Configurar executor con política de reintentos
-        this.executorService = Executors.newCachedThreadPool();
-
-        // Configurar cliente HTTP con timeouts
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .addInterceptor(new RateLimitInterceptor())
-                .build();
+        this.rateLimiter = RateLimiter.fromSettings(settingsManager);
+        // Cada slot de una réplica de llama.cpp atiende una generación a la vez
+        LlamaServerPool serverPool = LlamaServerPool.getInstance();
+        serverPool.setLimits(settingsManager::getLocalReplicas, settingsManager::getLocalMemoryBudgetMb,
+                settingsManager::getLocalCpuThreads);
+        serverPool.setIdleUnload(settingsManager::getLocalIdleUnloadMinutes);
+        serverPool.setParallelSlots(settingsManager::getLocalParallelSlots);
+        scheduler.setCapacity(ONLINE_BACKEND, settingsManager::getMaxConcurrentRequests);
+        scheduler.setCapacity(LOCAL_BACKEND, serverPool::getCapacity);
+        this.retryPolicy = new RetryPolicy(settingsManager::getMaxRetries);
+        this.tokenizer = new TokenizerService();
+        tokenizer.setLocalWindows(serverPool::getSlotContext);
+        this.contextWindowManager = new ContextWindowManager(tokenizer, settingsManager::getContextTokenBudget,
+                model -> tokenizer.getPromptBudget(model, outputTokens(model)), this::summarize);
+
+        // Carga de modelos y coberturas en hilos virtuales compartidos
+        this.localModelTasks = TaskExecutor.getInstance().group("local-models");
+        this.hedgeTasks = TaskExecutor.getInstance().group("hedging");
+
+        this.onlineBackend = onlineBackendFactory != null
+                ? onlineBackendFactory.apply(rateLimiter) : createOnlineBackend();
 
         // Cargar modelo local por defecto
-        initializeDefaultLocalModel();
+        if (loadDefaultLocalModel) {
+            initializeDefaultLocalModel();
+        }
 
         // Registrar shutdown hook
         Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
     }
 
+    /**
+     * Backend online según la configuración; usa el nombre "online" para compartir la cubeta
+     * del limitador y el cortocircuito sea cual sea el servidor
+     */
+    private LlmBackend createOnlineBackend() {
+        String baseUrl = settingsManager.getApiBaseUrl();
+        if (baseUrl == null || baseUrl.isBlank()) {
+            return new DeepSeekBackend(ONLINE_BACKEND, apiKeyManager, rateLimiter);
+        }
+        PluginLogger.log("Usando backend compatible con OpenAI en " + baseUrl, PluginLogger.Level.INFO);
+        return new OpenAiCompatibleBackend(ONLINE_BACKEND, baseUrl, apiKeyManager::getApiKey,
+                HttpRuntime.getInstance().getApiClient(), rateLimiter);
+    }
+
     private void initializeDefaultLocalModel() {
         try {
             Path modelsDir = Paths.get(System.getProperty("user.home"), ".deepseek-mcreator", "models");
@@ -75,6 +163,9 @@ public class DeepSeekClient {
                     "Modelo especializado en generación de código (33B parámetros, GGUF Q4_K_M)",
                     modelPath
             );
+            if (ModelDownloader.hasDefaultDraftModel(modelsDir)) {
+                defaultModel.setDraftModel(ModelDownloader.DEFAULT_DRAFT_MODEL);
+            }
 
             localModelManager.addModel(defaultModel);
             settingsManager.addAvailableModel(defaultModel.getName());
@@ -85,161 +176,621 @@ public class DeepSeekClient {
     }
 
     public String sendRequest(String prompt, String modelName) throws Exception {
-        // Validar límite de tasa
-        checkRateLimit();
+        return sendRequest(prompt, modelName, null);
+    }
+
+    /**
+     * Envía una solicitud entregando la respuesta fragmento a fragmento
+     * @param prompt Texto de entrada
+     * @param modelName Modelo a utilizar
+     * @param listener Receptor de fragmentos, o null para esperar la respuesta completa
+     * @return La respuesta completa
+     */
+    public String sendRequest(String prompt, String modelName, StreamListener listener) throws Exception {
+        return awaitResponse(sendRequestAsync(prompt, modelName, listener));
+    }
+
+    /**
+     * Lanza una solicitud y devuelve un manejador propio para seguirla o cancelarla
+     * @param prompt Texto de entrada
+     * @param modelName Modelo a utilizar
+     * @param listener Receptor de fragmentos, o null para esperar la respuesta completa
+     * @return Manejador que cancela únicamente esta solicitud
+     */
+    public RequestHandle submitRequest(String prompt, String modelName, StreamListener listener) {
+        return track(modelName, sendRequestAsync(prompt, modelName, listener));
+    }
+
+    /**
+     * Lanza un nuevo turno de una conversación enviando también el contexto previo
+     * @param session Conversación a la que pertenece el prompt; se le añade el turno al terminar
+     * @return Manejador que cancela únicamente esta solicitud
+     */
+    public RequestHandle submitRequest(ConversationSession session, String prompt, String modelName,
+                                       StreamListener listener) {
+        return track(modelName, sendRequestAsync(session, prompt, modelName, listener));
+    }
+
+    private RequestHandle track(String modelName, CompletableFuture<String> future) {
+        RequestHandle handle = new RequestHandle(modelName, future);
+        activeRequests.add(handle);
+        handle.getFuture().whenComplete((response, error) -> activeRequests.remove(handle));
+        return handle;
+    }
+
+    public CompletableFuture<String> sendRequestAsync(String prompt, String modelName) {
+        return sendRequestAsync(prompt, modelName, null);
+    }
+
+    /**
+     * Envía una solicitud sin bloquear el hilo llamante.
+     * Cancelar el future devuelto aborta la llamada HTTP en curso.
+     * @param prompt Texto de entrada
+     * @param modelName Modelo a utilizar
+     * @param listener Receptor de fragmentos, o null para esperar la respuesta completa
+     * @return Future que se completa con la respuesta completa
+     */
+    public CompletableFuture<String> sendRequestAsync(String prompt, String modelName, StreamListener listener) {
+        return sendRequestAsync(prompt, modelName, listener, Priority.INTERACTIVE);
+    }
+
+    /**
+     * Envía una solicitud en el carril de prioridad indicado. El trabajo automático debe usar
+     * BACKGROUND o BULK para no retrasar al chat.
+     * @param priority Carril del planificador
+     */
+    public CompletableFuture<String> sendRequestAsync(String prompt, String modelName, StreamListener listener,
+                                                      Priority priority) {
+        return sendMessagesAsync(List.of(ChatMessage.user(prompt)), modelName, null, null, listener, priority);
+    }
+
+    /**
+     * Envía una solicitud cuya respuesta debe seguir un formato (p. ej. OutputGrammar.CODE_EDIT).
+     * Con un modelo local la gramática se impone durante la generación; con la API se piden las
+     * mismas instrucciones y, para los esquemas JSON, el modo JSON.
+     * @param grammar Formato obligatorio de la respuesta
+     * @param priority Carril del planificador; el trabajo automático debe usar BACKGROUND o BULK
+     * @return Future con la respuesta sin formatear, lista para OutputGrammar.parse
+     */
+    public CompletableFuture<String> sendStructuredRequestAsync(String prompt, String modelName,
+                                                                OutputGrammar grammar, Priority priority) {
+        List<ChatMessage> messages = List.of(ChatMessage.system(grammar.getInstructions()), ChatMessage.user(prompt));
+        return sendMessagesAsync(messages, modelName, grammar, null, null, priority);
+    }
 
-        // Generar clave de caché
-        String cacheKey = generateCacheKey(prompt, modelName);
+    /**
+     * Ejecuta una lista de prompts independientes con concurrencia acotada. Cada prompt pasa
+     * por la caché, la deduplicación, el limitador de tasa y los reintentos como cualquier
+     * solicitud; acotar la concurrencia evita reservar de golpe miles de permisos.
+     * Los prompts van por el carril de lotes, detrás del chat y del trabajo en segundo plano.
+     * @param prompts Prompts a ejecutar
+     * @param modelName Modelo a utilizar
+     * @param maxConcurrency Solicitudes simultáneas como máximo
+     * @param onResult Recibe cada resultado en cuanto termina (desde el hilo de red), o null
+     * @return Future con todos los resultados en el orden de entrada; cancelarlo detiene el lote
+     */
+    public CompletableFuture<List<BatchResult>> sendBatchAsync(List<String> prompts, String modelName,
+                                                               int maxConcurrency, Consumer<BatchResult> onResult) {
+        return new BatchRun(prompts, maxConcurrency,
+                prompt -> sendRequestAsync(prompt, modelName, null, Priority.BULK),
+                prompt -> responseCache.get(generateCacheKey(List.of(ChatMessage.user(prompt)), modelName)).isPresent(),
+                onResult).start();
+    }
+
+    /**
+     * Envía un nuevo turno de una conversación. El historial se ajusta al presupuesto de
+     * tokens (turnos recientes literales y resumen de los antiguos) antes de enviarlo.
+     * @param session Conversación a la que pertenece el prompt
+     * @return Future con la respuesta; al completarse el turno queda registrado en la sesión
+     */
+    public CompletableFuture<String> sendRequestAsync(ConversationSession session, String prompt,
+                                                      String modelName, StreamListener listener) {
+        CompletableFuture<List<ChatMessage>> context = contextWindowManager.buildMessages(session, modelName, prompt);
+        CompletableFuture<String> response = Futures.thenComposeCancellable(context,
+                messages -> sendMessagesAsync(messages, modelName, null, session.getId(), listener,
+                        Priority.INTERACTIVE));
+
+        CompletableFuture<String> result = response.thenApply(text -> {
+            session.addTurn(prompt, text);
+            return text;
+        });
+        Futures.propagateCancel(result, response);
+        return result;
+    }
+
+    /**
+     * Envía una lista de mensajes ya preparada pasando por caché, deduplicación,
+     * limitador de tasa y reintentos
+     * @param grammar Formato obligatorio de la respuesta, o null para texto libre
+     * @param conversationId Conversación a la que pertenecen los mensajes, o null si no continúa ninguna
+     */
+    private CompletableFuture<String> sendMessagesAsync(List<ChatMessage> messages, String modelName,
+                                                        OutputGrammar grammar, String conversationId,
+                                                        StreamListener listener, Priority priority) {
+        // Generar clave de caché; el mismo prompt con otro formato es otra respuesta
+        String cacheKey = generateCacheKey(messages, modelName) + (grammar != null ? ":" + grammar.getName() : "");
 
         // Verificar caché primero
         Optional<CacheEntry> cachedResponse = responseCache.get(cacheKey);
         if (cachedResponse.isPresent()) {
-            currentSessionCost += cachedResponse.get().getCost();
-            return cachedResponse.get().getResponse();
+            // Una respuesta en caché no vuelve a facturarse
+            String cached = cachedResponse.get().getResponse();
+            if (listener != null) {
+                listener.onDelta(cached);
+                listener.onComplete(cached);
+            }
+            return CompletableFuture.completedFuture(cached);
         }
 
-        // Ejecutar solicitud
-        String response;
-        if (settingsManager.isOfflineModeEnabled()) {
-            response = sendLocalRequest(prompt, modelName);
+        // Unirse a una solicitud idéntica en curso en lugar de lanzar (y pagar) otra
+        InFlightRequest request = new InFlightRequest();
+        InFlightRequest inFlight = inFlightRequests.putIfAbsent(cacheKey, request);
+        if (inFlight != null) {
+            return inFlight.subscribe(listener);
+        }
+
+        CompletableFuture<String> subscription = request.subscribe(listener);
+        request.future.whenComplete((response, error) -> inFlightRequests.remove(cacheKey, request));
+
+        request.start(executeRequest(messages, modelName, grammar, conversationId, cacheKey,
+                listener != null ? request : null, priority));
+        return subscription;
+    }
+
+    /**
+     * Lanza la solicitud contra el backend activo y guarda el resultado en caché.
+     * Cada intento espera en la cola de su carril y después (sin ocupar hilos) hasta que el
+     * limitador le concede permiso; los fallos transitorios de la API se reintentan según la RetryPolicy.
+     * @param grammar Formato obligatorio de la respuesta, o null para texto libre
+     * @param conversationId Conversación a la que pertenecen los mensajes, o null
+     * @param listener Receptor de fragmentos; si es null la respuesta se pide completa
+     * @param priority Carril del planificador
+     */
+    private CompletableFuture<String> executeRequest(List<ChatMessage> messages, String modelName,
+                                                     OutputGrammar grammar, String conversationId,
+                                                     String cacheKey, StreamListener listener, Priority priority) {
+        boolean offline = settingsManager.isOfflineModeEnabled();
+        String backend = offline ? LOCAL_BACKEND : ONLINE_BACKEND;
+
+        // Backend que respondió primero cuando la solicitud se cubre con el modelo local
+        AtomicReference<String> winner = new AtomicReference<>();
+
+        // Con la API caída se responde con el modelo local cargado en lugar de fallar
+        Optional<LocalModel> fallback = offline || onlineBackend.isAvailable()
+                ? Optional.empty() : localModelManager.findLoadedModel();
+        if (fallback.isPresent()) {
+            PluginLogger.log("Circuito de la API abierto, se responde con el modelo local "
+                    + fallback.get().getName(), PluginLogger.Level.INFO);
+            winner.set(LOCAL_BACKEND);
+        }
+
+        CompletableFuture<ChatCompletion> execution;
+        if (fallback.isPresent()) {
+            execution = scheduler.submit(LOCAL_BACKEND, priority,
+                    () -> rateLimiter.acquire(LOCAL_BACKEND, LOCAL_BACKEND + ":" + fallback.get().getName()),
+                    () -> sendLocalRequestAsync(messages, fallback.get().getName(), grammar, conversationId,
+                            listener));
+        } else if (offline) {
+            // Los tokens de llama.cpp llegan en streaming al InFlightRequest según se generan
+            execution = scheduler.submit(backend, priority,
+                    () -> rateLimiter.acquire(backend, backend + ":" + modelName),
+                    () -> sendLocalRequestAsync(messages, modelName, grammar, conversationId, listener));
         } else {
-            response = sendApiRequest(prompt, modelName);
+            // Una vez mostrado texto en streaming, repetir la solicitud duplicaría la salida
+            AtomicBoolean streamed = new AtomicBoolean(false);
+            CompletableFuture<Void> firstToken = new CompletableFuture<>();
+            // Momento en que el intento actual sale hacia la API, tras la cola, el limitador y el backoff
+            AtomicLong dispatched = new AtomicLong(System.nanoTime());
+            StreamListener tracking = listener == null ? null : delta -> {
+                // Si el modelo local ya respondió, la salida de la API se descarta
+                if (!claim(winner, ONLINE_BACKEND)) {
+                    return;
+                }
+                if (!streamed.getAndSet(true)) {
+                    recordFirstToken(modelName, dispatched.get());
+                    firstToken.complete(null);
+                }
+                listener.onDelta(delta);
+            };
+
+            CompletableFuture<ChatCompletion> online = retryPolicy.execute(
+                    () -> scheduler.submit(backend, priority,
+                            () -> rateLimiter.acquire(backend, backend + ":" + modelName),
+                            () -> {
+                                dispatched.set(System.nanoTime());
+                                return sendApiRequestAsync(messages, modelName, grammar, tracking);
+                            }),
+                    () -> !streamed.get());
+
+            // Sin streaming no hay primer token que medir: la respuesta completa no es comparable
+            online.whenComplete((completion, error) -> firstToken.complete(null));
+
+            // Solo se cubre al usuario que espera en streaming; el trabajo en segundo plano o por
+            // lotes no debe ocupar el modelo local de CPU
+            execution = priority == Priority.INTERACTIVE && listener != null
+                    ? hedgeWithLocal(messages, grammar, conversationId, listener, online, firstToken, winner,
+                            hedgeDelay(modelName), priority)
+                    : online;
         }
 
-        // Calcular costo y almacenar en caché
-        double cost = calculateCost(response);
-        currentSessionCost += cost;
+        CompletableFuture<String> result = execution.thenApply(completion -> {
+            // El costo sale del consumo real de tokens, no de la longitud del texto
+            addSessionCost(completion.cost);
 
-        // Configurar TTL según tipo de modelo
-        long ttl = modelName.toLowerCase().contains("33b") ?
-                TimeUnit.MINUTES.toMillis(30) :
-                TimeUnit.HOURS.toMillis(1);
+            // Configurar TTL según tipo de modelo
+            long ttl = modelName.toLowerCase().contains("33b") ?
+                    TimeUnit.MINUTES.toMillis(30) :
+                    TimeUnit.HOURS.toMillis(1);
 
-        responseCache.put(cacheKey, response, cost, ttl);
-        lastRequestTimestamp = System.currentTimeMillis();
+            // Una respuesta del modelo local no debe quedar en caché como si fuera del modelo online
+            if (!LOCAL_BACKEND.equals(winner.get())) {
+                responseCache.put(cacheKey, completion.text, completion.cost, ttl);
+            }
+            return completion.text;
+        });
 
-        return response;
+        Futures.propagateCancel(result, execution);
+        return result;
     }
 
-    private String sendApiRequest(String prompt, String modelName) throws Exception {
-        if (requestCancelled) {
-            requestCancelled = false;
-            throw new CancellationException("Request cancelled by user");
+    /**
+     * Cubre una solicitud a la API con el modelo local: si la API no ha entregado el primer
+     * token tras el retardo indicado, se lanza el mismo prompt al modelo local cargado en
+     * streaming y gana el primero que entrega un token. El perdedor se cancela.
+     * @param grammar Formato que también debe respetar la respuesta local, o null
+     * @param conversationId Conversación cuyo slot local se reutiliza, o null
+     * @param listener Receptor de los tokens del ganador
+     * @param firstToken Se completa cuando la API entrega su primer token (o termina)
+     * @param winner Registra qué backend ganó; el primero en reclamarlo se queda la respuesta
+     * @param delayMillis Retardo antes de lanzar el modelo local, o -1 para no cubrir
+     * @param priority Carril del planificador para la solicitud local
+     */
+    private CompletableFuture<ChatCompletion> hedgeWithLocal(List<ChatMessage> messages, OutputGrammar grammar,
+                                                             String conversationId, StreamListener listener,
+                                                             CompletableFuture<ChatCompletion> online,
+                                                             CompletableFuture<Void> firstToken,
+                                                             AtomicReference<String> winner, long delayMillis,
+                                                             Priority priority) {
+        Optional<LocalModel> local = localModelManager.findLoadedModel();
+        if (delayMillis < 0 || local.isEmpty()) {
+            return online;
         }
 
-        // Validar tamaño del prompt
-        validatePromptSize(prompt);
+        CompletableFuture<ChatCompletion> result = new CompletableFuture<>();
+        AtomicInteger contenders = new AtomicInteger(1);
+        AtomicReference<Throwable> lastError = new AtomicReference<>();
+        Futures.propagateCancel(result, online);
+
+        // El que pierde también cuenta como terminado, o un fallo del ganador dejaría el resultado colgado
+        online.whenComplete((completion, error) -> {
+            if (error == null && claim(winner, ONLINE_BACKEND)) {
+                result.complete(completion);
+            } else {
+                finishContender(result, contenders, lastError, error);
+            }
+        });
 
-        // Crear cuerpo de la solicitud
-        JSONObject requestBody = createRequestBody(prompt, modelName);
+        hedgeTasks.schedule(() -> {
+            if (firstToken.isDone() || result.isDone()) {
+                return;
+            }
 
-        // Crear y ejecutar solicitud HTTP
-        Request request = new Request.Builder()
-                .url(API_URL)
-                .post(RequestBody.create(requestBody.toString(), MediaType.get("application/json")))
-                .addHeader("Authorization", "Bearer " + apiKeyManager.getApiKey())
-                .addHeader("Content-Type", "application/json")
-                .build();
+            PluginLogger.log("La API no ha respondido en " + delayMillis + " ms, se cubre con el modelo local "
+                    + local.get().getName(), PluginLogger.Level.DEBUG);
+            contenders.incrementAndGet();
+            // El primer token local reclama la respuesta y corta la API; el usuario lo ve al instante
+            StreamListener localListener = delta -> {
+                if (claim(winner, LOCAL_BACKEND)) {
+                    online.cancel(true);
+                    listener.onDelta(delta);
+                }
+            };
+            CompletableFuture<ChatCompletion> hedge = scheduler.submit(LOCAL_BACKEND, priority,
+                    () -> rateLimiter.acquire(LOCAL_BACKEND, LOCAL_BACKEND + ":" + local.get().getName()),
+                    () -> sendLocalRequestAsync(messages, local.get().getName(), grammar, conversationId,
+                            localListener));
+            Futures.propagateCancel(result, hedge);
+
+            // En cuanto la API empieza a responder el modelo local sobra
+            firstToken.thenRun(() -> {
+                if (ONLINE_BACKEND.equals(winner.get())) {
+                    hedge.cancel(true);
+                }
+            });
+
+            hedge.whenComplete((completion, error) -> {
+                if (error == null && claim(winner, LOCAL_BACKEND)) {
+                    online.cancel(true);
+                    result.complete(completion);
+                } else {
+                    finishContender(result, contenders, lastError, error);
+                }
+            });
+        }, delayMillis, TimeUnit.MILLISECONDS);
+
+        return result;
+    }
+
+    /**
+     * Registra que un contendiente terminó sin quedarse la respuesta; si era el último, el
+     * resultado falla con el último error visto
+     */
+    private static void finishContender(CompletableFuture<ChatCompletion> result, AtomicInteger contenders,
+                                        AtomicReference<Throwable> lastError, Throwable error) {
+        if (error != null) {
+            lastError.set(Futures.unwrap(error));
+        }
+        if (contenders.decrementAndGet() == 0) {
+            Throwable cause = lastError.get();
+            result.completeExceptionally(cause != null ? cause
+                    : new CancellationException("Both hedged requests finished without a response"));
+        }
+    }
 
-        try (Response response = httpClient.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new IOException("API request failed: " + response.code() + " - " + response.body().string());
+    /**
+     * Retardo tras el que se cubre una solicitud: el percentil configurado de la latencia
+     * reciente hasta el primer token
+     * @return Milisegundos, o -1 si la cobertura está desactivada o aún no hay datos suficientes
+     */
+    private long hedgeDelay(String modelName) {
+        if (!settingsManager.isHedgingEnabled()) {
+            return -1;
+        }
+        LatencyTracker tracker = firstTokenLatency.get(modelName);
+        if (tracker == null || tracker.getSampleCount() < MIN_HEDGE_SAMPLES) {
+            return -1;
+        }
+        return tracker.percentile(settingsManager.getHedgePercentile());
+    }
+
+    private void recordFirstToken(String modelName, long startNanos) {
+        firstTokenLatency.computeIfAbsent(modelName, k -> new LatencyTracker(200))
+                .record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Reclama la respuesta para un backend
+     * @return true si el backend ya la tenía o acaba de conseguirla
+     */
+    private static boolean claim(AtomicReference<String> winner, String backend) {
+        return winner.compareAndSet(null, backend) || backend.equals(winner.get());
+    }
+
+    /**
+     * Espera el resultado de una solicitud asíncrona desenvolviendo la causa real del error
+     */
+    private String awaitResponse(CompletableFuture<String> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
             }
+            throw e;
+        }
+    }
 
-            return processApiResponse(response.body().string());
+    /**
+     * Envía la solicitud al backend online
+     * @param listener Si no es null se pide la respuesta en streaming y se entrega cada fragmento.
+     *                 Mientras llega el texto el costo de sesión incluye una estimación por tokens,
+     *                 que se sustituye por el costo real al terminar.
+     */
+    private CompletableFuture<ChatCompletion> sendApiRequestAsync(List<ChatMessage> messages, String modelName,
+                                                                  OutputGrammar grammar, StreamListener listener) {
+        // Ajustar el prompt a la ventana de contexto del modelo (rechazar o recortar)
+        List<ChatMessage> fittedMessages;
+        try {
+            // El prefijo estable va primero para que la API lo sirva desde su caché de contexto
+            fittedMessages = tokenizer.fitMessages(modelName, promptAssembler.assemble(messages),
+                    outputTokens(modelName), settingsManager.isTrimLongPromptsEnabled());
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
         }
+
+        DoubleAdder estimatedCost = new DoubleAdder();
+        StreamListener costTracking = listener == null ? null : delta -> {
+            double deltaCost = tokenizer.countTokens(modelName, delta) * COST_PER_OUTPUT_TOKEN;
+            estimatedCost.add(deltaCost);
+            pendingStreamCost.add(deltaCost);
+            listener.onDelta(delta);
+        };
+
+        CompletableFuture<LlmResult> generation = onlineBackend.generate(
+                createLlmRequest(fittedMessages, modelName, grammar, null), costTracking);
+        generation.whenComplete((result, error) -> pendingStreamCost.add(-estimatedCost.sum()));
+
+        // El costo se suma a la sesión en executeRequest, una sola vez
+        CompletableFuture<ChatCompletion> completion = generation.thenApply(
+                result -> completionFromUsage(result, fittedMessages, modelName));
+        Futures.propagateCancel(completion, generation);
+        return completion;
     }
 
-    private String sendLocalRequest(String prompt, String modelName) throws Exception {
-        LocalModel model = localModelManager.getModel(modelName)
-                .orElseThrow(() -> new IllegalArgumentException("Model not found: " + modelName));
+    /**
+     * Genera la respuesta con un modelo local
+     * @param conversationId Conversación cuyo slot de llama.cpp (y su caché KV) se reutiliza, o null
+     * @param listener Si no es null los tokens se entregan en streaming según los produce llama.cpp
+     */
+    private CompletableFuture<ChatCompletion> sendLocalRequestAsync(List<ChatMessage> messages, String modelName,
+                                                                    OutputGrammar grammar, String conversationId,
+                                                                    StreamListener listener) {
+        Optional<LocalModel> model = localModelManager.getModel(modelName);
+        if (model.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Model not found: " + modelName));
+        }
+
+        // La ventana es el contexto de un slot de llama.cpp, mucho menor que la de la API
+        List<ChatMessage> fittedMessages;
+        try {
+            fittedMessages = tokenizer.fitMessages(modelName, messages, outputTokens(modelName),
+                    settingsManager.isTrimLongPromptsEnabled());
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
 
-        CompletableFuture<String> future = new CompletableFuture<>();
+        LlmBackend backend = localBackends.computeIfAbsent(modelName, name ->
+                new LlamaCppBackend(model.get(), localModelTasks, settingsManager::getLocalModelTimeout));
+        CompletableFuture<LlmResult> generation = backend.generate(
+                createLlmRequest(fittedMessages, modelName, grammar, conversationId), listener);
 
-        executorService.submit(() -> {
-            try {
-                String response = model.generateResponse(prompt);
-                future.complete(response);
-            } catch (Exception e) {
-                future.completeExceptionally(e);
+        // Los modelos locales no tienen costo; los tokens se cuentan para las estadísticas
+        CompletableFuture<ChatCompletion> completion = generation.thenApply(result -> {
+            if (result.hasUsage()) {
+                return new ChatCompletion(result.text, result.promptTokens, result.completionTokens, 0, 0);
             }
+            return new ChatCompletion(result.text, tokenizer.countMessageTokens(modelName,
+                    ChatMessage.toTranscript(fittedMessages)), tokenizer.countTokens(modelName, result.text), 0, 0);
         });
+        Futures.propagateCancel(completion, generation);
+        return completion;
+    }
 
-        return future.get(settingsManager.getLocalModelTimeout(), TimeUnit.SECONDS);
+    private LlmRequest createLlmRequest(List<ChatMessage> messages, String modelName, OutputGrammar grammar,
+                                        String conversationId) {
+        LlmRequest request = new LlmRequest(messages, modelName);
+        request.grammar = grammar;
+        request.conversationId = conversationId;
+        // La misma reserva con la que se ajustó el prompt
+        request.maxTokens = tokenizer.getOutputReserve(modelName, outputTokens(modelName));
+        request.temperature = settingsManager.getTemperature();
+        request.topP = settingsManager.getTopP();
+        return request;
     }
 
-    private JSONObject createRequestBody(String prompt, String modelName) {
-        JSONObject requestBody = new JSONObject();
-        requestBody.put("model", modelName);
+    /**
+     * Costo real a partir del bloque usage; si el backend no lo informó se estima con el tokenizador
+     */
+    private ChatCompletion completionFromUsage(LlmResult result, List<ChatMessage> messages, String modelName) {
+        String text = result.text;
+        if (!result.hasUsage()) {
+            int promptTokens = 0;
+            for (ChatMessage message : messages) {
+                promptTokens += tokenizer.countMessageTokens(modelName, message.content);
+            }
+            int completionTokens = tokenizer.countTokens(modelName, text);
+            return new ChatCompletion(text, promptTokens, completionTokens, 0,
+                    promptTokens * COST_PER_INPUT_TOKEN + completionTokens * COST_PER_OUTPUT_TOKEN);
+        }
 
-        JSONArray messages = new JSONArray();
-        JSONObject message = new JSONObject();
-        message.put("role", "user");
-        message.put("content", prompt);
-        messages.put(message);
+        int inputTokens = result.promptTokens;
+        int outputTokens = result.completionTokens;
+        int cacheHitTokens = Math.max(0, result.cacheHitTokens);
+        int cacheMissTokens = result.cacheMissTokens >= 0 ? result.cacheMissTokens : inputTokens - cacheHitTokens;
 
-        requestBody.put("messages", messages);
-        requestBody.put("max_tokens", MAX_TOKENS);
-        requestBody.put("temperature", settingsManager.getTemperature());
-        requestBody.put("top_p", settingsManager.getTopP());
+        double cost = (cacheHitTokens * COST_PER_CACHED_INPUT_TOKEN)
+                + (cacheMissTokens * COST_PER_INPUT_TOKEN)
+                + (outputTokens * COST_PER_OUTPUT_TOKEN);
+        promptCacheStats.record(cacheHitTokens, cacheMissTokens,
+                cacheHitTokens * (COST_PER_INPUT_TOKEN - COST_PER_CACHED_INPUT_TOKEN));
 
-        return requestBody;
+        return new ChatCompletion(text, inputTokens, outputTokens, cacheHitTokens, cost);
     }
 
-    private String processApiResponse(String responseBody) throws JSONException {
-        JSONObject jsonResponse = new JSONObject(responseBody);
-
-        // Calcular costo
-        int inputTokens = jsonResponse.getJSONObject("usage").getInt("prompt_tokens");
-        int outputTokens = jsonResponse.getJSONObject("usage").getInt("completion_tokens");
-        double cost = (inputTokens * COST_PER_INPUT_TOKEN) + (outputTokens * COST_PER_OUTPUT_TOKEN);
+    private synchronized void addSessionCost(double cost) {
         currentSessionCost += cost;
-
-        return jsonResponse.getJSONArray("choices")
-                .getJSONObject(0)
-                .getJSONObject("message")
-                .getString("content");
     }
 
-    private void validatePromptSize(String prompt) {
-        if (prompt.length() > MAX_TOKENS * 4) {
-            throw new IllegalArgumentException(
-                    "Prompt too long. Max length: " + (MAX_TOKENS * 4) + " characters");
+    /**
+     * Resume turnos antiguos de una conversación. Pasa por el mismo camino que cualquier
+     * solicitud (caché, limitador, reintentos) y siempre recorta si el texto no cabe.
+     */
+    private CompletableFuture<String> summarize(String modelName, List<ChatMessage> messages) {
+        try {
+            // El resumen bloquea el turno del usuario, así que va por el carril interactivo
+            return sendMessagesAsync(tokenizer.fitMessages(modelName, messages, outputTokens(modelName), true),
+                    modelName, null, null, null, Priority.INTERACTIVE);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
         }
     }
 
-    private void checkRateLimit() {
-        long currentTime = System.currentTimeMillis();
-        long timeSinceLastRequest = currentTime - lastRequestTimestamp;
+    /**
+     * Tokens de salida que pide el modelo: su n_predict si es local, MAX_TOKENS si es de la API.
+     * TokenizerService los limita a media ventana.
+     */
+    private int outputTokens(String modelName) {
+        return localModelManager.getModel(modelName).map(LocalModel::getMaxOutputTokens).orElse(MAX_TOKENS);
+    }
 
-        if (timeSinceLastRequest < settingsManager.getRateLimitDelay()) {
-            throw new IllegalStateException(
-                    "Rate limit exceeded. Please wait " +
-                            (settingsManager.getRateLimitDelay() - timeSinceLastRequest) / 1000 +
-                            " seconds before making another request.");
+    private String generateCacheKey(List<ChatMessage> messages, String modelName) {
+        // Usar hash para manejar prompts largos eficientemente. Debe ser resistente a
+        // colisiones: solicitudes con la misma clave comparten una única respuesta.
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (ChatMessage message : messages) {
+                // Separadores para que ("ab","c") y ("a","bc") no coincidan
+                digest.update(message.role.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(message.content.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            byte[] hash = digest.digest();
+            return modelName + "-" + HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
         }
     }
 
-    private String generateCacheKey(String prompt, String modelName) {
-        // Usar hash para manejar prompts largos eficientemente
-        return modelName + "-" + Integer.toHexString(prompt.hashCode());
+    /**
+     * Abre en segundo plano la conexión con la API para que la primera solicitud sea rápida
+     */
+    public void warmUpConnection() {
+        onlineBackend.warmUp();
     }
 
-    private double calculateCost(String response) {
-        // Estimación simplificada del costo basada en longitud
-        return response.length() / 1000.0 * 0.002;
+    /**
+     * Carga en segundo plano el modelo local seleccionado para que la primera solicitud sin
+     * conexión no espere al arranque de llama.cpp
+     */
+    public void prewarmLocalModel() {
+        localModelManager.getModel(settingsManager.getSelectedModel()).ifPresent(model -> {
+            if (model.isModelLoaded()) {
+                return;
+            }
+            PluginLogger.log("Precalentando el modelo local " + model.getName(), PluginLogger.Level.DEBUG);
+            model.loadAsync(localModelTasks).exceptionally(error -> {
+                PluginLogger.log("No se pudo precalentar " + model.getName() + ": "
+                        + Futures.unwrap(error).getMessage(), PluginLogger.Level.WARN);
+                return null;
+            });
+        });
     }
 
-    public void cancelCurrentRequest() {
-        requestCancelled = true;
-        httpClient.dispatcher().cancelAll();
+    /**
+     * Solicitudes lanzadas con submitRequest que aún no han terminado
+     */
+    public List<RequestHandle> getActiveRequests() {
+        return new ArrayList<>(activeRequests);
     }
 
+    /**
+     * Costo acumulado de la sesión, incluida la estimación de los streams en curso
+     */
     public double getCurrentSessionCost() {
-        return currentSessionCost;
+        return currentSessionCost + pendingStreamCost.sum();
+    }
+
+    /**
+     * Aciertos de la caché de contexto de la API y ahorro acumulado
+     */
+    public PromptCacheStats getPromptCacheStats() {
+        return promptCacheStats;
     }
 
-    public void resetSessionCost() {
+    public PromptAssembler getPromptAssembler() {
+        return promptAssembler;
+    }
+
+    public TokenizerService getTokenizer() {
+        return tokenizer;
+    }
+
+    public synchronized void resetSessionCost() {
         currentSessionCost = 0;
     }
 
@@ -264,6 +815,10 @@ public class DeepSeekClient {
         settingsManager.addAvailableModel(model.getName());
     }
 
+    public RetryPolicy.Metrics getRetryMetrics() {
+        return retryPolicy.getMetrics();
+    }
+
     public ResponseCache.CacheStats getCacheStats() {
         return responseCache.getStats();
     }
@@ -273,40 +828,84 @@ public class DeepSeekClient {
     }
 
     public void shutdown() {
-        executorService.shutdown();
+        activeRequests.forEach(RequestHandle::cancel);
         responseCache.shutdown();
         localModelManager.shutdown();
+    }
 
-        try {
-            if (!executorService.awaitTermination(5, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
+    /**
+     * Solicitud en curso compartida por todos los llamantes que piden lo mismo a la vez.
+     * Reenvía los fragmentos a cada suscriptor y solo cancela la llamada real
+     * cuando todos los suscriptores han cancelado.
+     */
+    private static final class InFlightRequest implements StreamListener {
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        private final StringBuilder received = new StringBuilder();
+        private final List<StreamListener> listeners = new ArrayList<>();
+        private CompletableFuture<String> execution;
+        private int subscribers = 0;
+
+        /**
+         * Añade un suscriptor; si ya llegaron fragmentos se le entregan de golpe
+         * @return Copia independiente del future compartido
+         */
+        synchronized CompletableFuture<String> subscribe(StreamListener listener) {
+            subscribers++;
+            if (listener != null) {
+                if (received.length() > 0) {
+                    listener.onDelta(received.toString());
+                }
+                listeners.add(listener);
             }
-        } catch (InterruptedException e) {
-            executorService.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
-    }
 
-    // Interceptor para manejar límites de tasa
-    private class RateLimitInterceptor implements Interceptor {
-        @Override
-        public Response intercept(Chain chain) throws IOException {
-            long currentTime = System.currentTimeMillis();
-            long timeSinceLastRequest = currentTime - lastRequestTimestamp;
+            CompletableFuture<String> subscription = future.copy();
+            subscription.whenComplete((response, error) -> {
+                if (subscription.isCancelled()) {
+                    unsubscribe(listener);
+                }
+            });
+            return subscription;
+        }
 
-            if (timeSinceLastRequest < settingsManager.getRateLimitDelay()) {
-                throw new IOException("Rate limit exceeded");
+        private synchronized void unsubscribe(StreamListener listener) {
+            listeners.remove(listener);
+            if (--subscribers == 0 && execution != null) {
+                execution.cancel(true);
             }
+        }
 
-            Request request = chain.request();
-            Response response = chain.proceed(request);
+        synchronized void start(CompletableFuture<String> execution) {
+            this.execution = execution;
+            execution.whenComplete((response, error) -> {
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else {
+                    onComplete(response);
+                    future.complete(response);
+                }
+            });
+            if (subscribers == 0) {
+                execution.cancel(true);
+            }
+        }
 
-            if (response.code() == 429) { // Too Many Requests
-                response.close();
-                throw new IOException("API rate limit exceeded");
+        @Override
+        public synchronized void onDelta(String delta) {
+            received.append(delta);
+            for (StreamListener listener : listeners) {
+                listener.onDelta(delta);
             }
+        }
 
-            return response;
+        @Override
+        public synchronized void onComplete(String fullResponse) {
+            // Si la llamada no fue en streaming, entregar la respuesta como un único fragmento
+            if (received.length() == 0 && !fullResponse.isEmpty()) {
+                onDelta(fullResponse);
+            }
+            for (StreamListener listener : listeners) {
+                listener.onComplete(fullResponse);
+            }
         }
     }
 }
\ No newline at end of file
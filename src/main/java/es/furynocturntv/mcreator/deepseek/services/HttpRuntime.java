@@ -0,0 +1,143 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import es.furynocturntv.mcreator.deepseek.config.DeepSeekPreferences;
+import es.furynocturntv.mcreator.deepseek.utils.PluginLogger;
+import es.furynocturntv.mcreator.deepseek.utils.TaskExecutor;
+import okhttp3.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runtime HTTP compartido por DeepSeekClient y todos los LlamaClient.
+ * Un único pool de conexiones permite reutilizar conexiones TLS/HTTP2 ya abiertas.
+ * La API y los servidores locales tienen cada uno su dispatcher: OkHttp limita por host,
+ * no por puerto, y todas las réplicas de llama.cpp escuchan en 127.0.0.1.
+ * Implementa un patrón Singleton para acceso global
+ */
+public class HttpRuntime {
+    // Tope de seguridad para llama.cpp; la concurrencia real la acotan el planificador y los slots
+    private static final int MAX_LOCAL_REQUESTS = 256;
+
+    private static HttpRuntime instance;
+
+    private final ConnectionPool connectionPool;
+    private final Dispatcher dispatcher;
+    private final Dispatcher localDispatcher;
+    private final OkHttpClient apiClient;
+    private final OkHttpClient localClient;
+
+    private HttpRuntime() {
+        DeepSeekPreferences preferences = DeepSeekPreferences.getInstance();
+
+        // Conexiones inactivas que se mantienen abiertas para evitar repetir DNS/TCP/TLS
+        this.connectionPool = new ConnectionPool(
+                preferences.getHttpMaxIdleConnections(),
+                preferences.getHttpKeepAliveSeconds(),
+                TimeUnit.SECONDS);
+
+        // Cada llamada en curso bloquea un hilo leyendo del socket: mejor uno virtual
+        this.dispatcher = new Dispatcher(TaskExecutor.getInstance().group("http").asExecutorService());
+        dispatcher.setMaxRequests(64);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost(preferences));
+
+        // El límite por host de la API sale de su límite de tasa y no debe frenar a los modelos locales
+        this.localDispatcher = new Dispatcher(dispatcher.executorService());
+        localDispatcher.setMaxRequests(MAX_LOCAL_REQUESTS);
+        localDispatcher.setMaxRequestsPerHost(MAX_LOCAL_REQUESTS);
+
+        // HTTP/2 multiplexa todas las solicitudes a la API sobre una sola conexión
+        this.apiClient = new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(60, TimeUnit.SECONDS)
+                .pingInterval(30, TimeUnit.SECONDS)
+                .build();
+
+        // llama.cpp habla HTTP/1.1 en claro y puede tardar minutos entre tokens en CPU
+        this.localClient = apiClient.newBuilder()
+                .dispatcher(localDispatcher)
+                .protocols(List.of(Protocol.HTTP_1_1))
+                .readTimeout(5, TimeUnit.MINUTES)
+                .build();
+    }
+
+    public static synchronized HttpRuntime getInstance() {
+        if (instance == null) {
+            instance = new HttpRuntime();
+        }
+        return instance;
+    }
+
+    /**
+     * Calcula las solicitudes simultáneas por host a partir del límite de tasa:
+     * deben caber todas las que el limitador puede liberar mientras una respuesta
+     * en streaming sigue abierta (hasta el timeout de lectura).
+     */
+    private static int maxRequestsPerHost(DeepSeekPreferences preferences) {
+        int burst = preferences.getRateLimitBurst();
+        double permitsPerSecond = 1000.0 / Math.max(1, preferences.getRateLimitDelay());
+        int sustained = (int) Math.ceil(permitsPerSecond * 60);
+        return Math.max(2, Math.min(32, Math.max(burst, sustained)));
+    }
+
+    /**
+     * Cliente para la API online (HTTP/2, timeouts cortos)
+     */
+    public OkHttpClient getApiClient() {
+        return apiClient;
+    }
+
+    /**
+     * Cliente para servidores llama.cpp locales. Comparte el pool de conexiones con el de la API,
+     * pero no su dispatcher
+     */
+    public OkHttpClient getLocalClient() {
+        return localClient;
+    }
+
+    /**
+     * Abre en segundo plano una conexión con el host indicado para que la primera
+     * solicitud real no pague DNS, TCP y TLS. El resultado de la petición se ignora.
+     * @param url Cualquier URL del host a precalentar
+     */
+    public void warmUp(String url) {
+        HttpUrl parsed = HttpUrl.parse(url);
+        if (parsed == null) {
+            return;
+        }
+
+        Request request = new Request.Builder()
+                .url(parsed.newBuilder().encodedPath("/").build())
+                .head()
+                .build();
+
+        apiClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                PluginLogger.log("No se pudo precalentar la conexión con " + parsed.host() + ": " + e.getMessage(),
+                        PluginLogger.Level.DEBUG);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+                PluginLogger.log("Conexión precalentada con " + parsed.host() + " (" + response.protocol() + ")",
+                        PluginLogger.Level.DEBUG);
+            }
+        });
+    }
+
+    /**
+     * Cierra las conexiones abiertas y detiene los hilos del dispatcher
+     */
+    public void shutdown() {
+        dispatcher.cancelAll();
+        localDispatcher.cancelAll();
+        dispatcher.executorService().shutdown();
+        connectionPool.evictAll();
+    }
+}
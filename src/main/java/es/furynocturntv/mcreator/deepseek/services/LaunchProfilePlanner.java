@@ -0,0 +1,149 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import es.furynocturntv.mcreator.deepseek.models.GgufMetadata;
+import es.furynocturntv.mcreator.deepseek.models.LaunchProfile;
+import es.furynocturntv.mcreator.deepseek.utils.HardwareInfo;
+import es.furynocturntv.mcreator.deepseek.utils.PluginLogger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Elige los parámetros de arranque de llama.cpp para un modelo en esta máquina.
+ *
+ * En CPU la generación está limitada por el ancho de banda de memoria, así que se usa un
+ * hilo por núcleo físico asignado (los hilos SMT solo se añaden para procesar el prompt).
+ * El contexto de cada slot es el mayor que cabe en la memoria libre junto a los pesos (la caché
+ * KV crece con el contexto de todos los slots), sin pasar del de entrenamiento; si el modelo
+ * cabe con holgura se bloquea en RAM para que no se pagine.
+ *
+ * Si el modelo declara un borrador para la decodificación especulativa, solo se usa cuando
+ * tokeniza igual que el principal; sus pesos y su caché KV cuentan en la memoria estimada.
+ */
+public class LaunchProfilePlanner {
+    private static final int MIN_CONTEXT = 2048;
+    private static final int MAX_AUTO_CONTEXT = 8192;
+    private static final int CPU_BATCH_SIZE = 512;
+    private static final int GPU_BATCH_SIZE = 2048;
+    private static final int LOW_MEMORY_BATCH_SIZE = 256;
+    // Capas en GPU cuando la hay; sin saber su memoria se mantiene el valor anterior
+    private static final int GPU_LAYERS = 35;
+    // Búferes de cálculo de llama.cpp; sin metadatos de la caché KV se usa una reserva fija
+    private static final long COMPUTE_OVERHEAD_BYTES = 256L * 1024 * 1024;
+    private static final long UNKNOWN_MODEL_OVERHEAD_BYTES = 512L * 1024 * 1024;
+    // Fracción de la memoria disponible por debajo de la cual el modelo "cabe con holgura"
+    private static final double COMFORTABLE_FRACTION = 0.6;
+    private static final double TIGHT_FRACTION = 0.8;
+
+    private LaunchProfilePlanner() {
+    }
+
+    /**
+     * @param modelFile Archivo GGUF del modelo
+     * @param draftFile Archivo GGUF del modelo borrador, o null para no usar decodificación especulativa
+     * @param overrides Valores fijados para el modelo, o null
+     * @param threadAllotment Núcleos físicos asignados a este servidor
+     * @param slots Conversaciones con caché KV propia (--parallel)
+     * @param memoryLimitBytes Memoria que puede ocupar este servidor dentro del presupuesto
+     * @param reclaimableBytes Memoria de los servidores que se descargarán para hacer sitio; aún
+     *                         no figura como disponible en el sistema
+     */
+    public static LaunchProfile plan(Path modelFile, Path draftFile, LaunchProfile.Overrides overrides,
+                                     int threadAllotment, int slots, long memoryLimitBytes,
+                                     long reclaimableBytes) {
+        HardwareInfo hardware = HardwareInfo.detect();
+        GgufMetadata metadata = readMetadata(modelFile);
+        GgufMetadata draft = draftFile != null ? readCompatibleDraft(modelFile, metadata, draftFile) : null;
+
+        long weights = metadata != null ? metadata.getFileSize() : fileSize(modelFile);
+        long kvPerToken = metadata != null ? metadata.getKvBytesPerToken() : 0;
+        if (draft != null) {
+            // El borrador tiene su propia caché KV del mismo tamaño de contexto
+            weights += draft.getFileSize();
+            kvPerToken += kvPerToken > 0 ? draft.getKvBytesPerToken() : 0;
+        }
+        long trainedContext = metadata != null && metadata.getContextLength() > 0
+                ? metadata.getContextLength() : MIN_CONTEXT;
+        long memoryLimit = Math.min(memoryLimitBytes, hardware.getAvailableMemoryBytes() + reclaimableBytes);
+
+        LaunchProfile profile = new LaunchProfile();
+        profile.threads = Math.max(1, threadAllotment);
+        profile.threadsBatch = profile.threads * hardware.getThreadsPerCore();
+        profile.gpuLayers = hardware.gpu ? GPU_LAYERS : 0;
+        profile.parallel = overrides != null && overrides.parallel != null ? overrides.parallel : Math.max(1, slots);
+        if (draft != null) {
+            profile.draftModelPath = draftFile.toAbsolutePath().toString();
+            // El borrador es pequeño: con GPU cabe entero
+            profile.draftGpuLayers = hardware.gpu ? (int) draft.getBlockCount() + 1 : 0;
+        }
+
+        // Mayor contexto por slot que cabe: se parte del de entrenamiento (con tope) y se reduce a la mitad
+        int context = (int) Math.min(trainedContext, MAX_AUTO_CONTEXT);
+        while (context > MIN_CONTEXT && estimateMemory(weights, kvPerToken, context * profile.parallel) > memoryLimit) {
+            context /= 2;
+        }
+        profile.contextSize = context * profile.parallel;
+
+        long estimate = estimateMemory(weights, kvPerToken, profile.contextSize);
+        profile.batchSize = hardware.gpu ? GPU_BATCH_SIZE
+                : estimate > memoryLimit * TIGHT_FRACTION ? LOW_MEMORY_BATCH_SIZE : CPU_BATCH_SIZE;
+
+        // Con holgura se bloquea el modelo en RAM; en Windows mlock exige privilegios, así que
+        // se lee entero sin mmap, que también evita que se pagine
+        boolean comfortable = estimate < memoryLimit * COMFORTABLE_FRACTION;
+        boolean windows = System.getProperty("os.name").toLowerCase().contains("win");
+        profile.mlock = comfortable && !windows;
+        profile.noMmap = comfortable && windows;
+
+        if (overrides != null) {
+            overrides.applyTo(profile);
+        }
+        profile.estimatedMemoryBytes = estimateMemory(weights, kvPerToken, profile.contextSize);
+        return profile;
+    }
+
+    /**
+     * Pesos del modelo, caché KV del contexto y búferes de cálculo
+     */
+    private static long estimateMemory(long weights, long kvPerToken, int context) {
+        if (kvPerToken <= 0) {
+            return weights + UNKNOWN_MODEL_OVERHEAD_BYTES;
+        }
+        return weights + kvPerToken * context + COMPUTE_OVERHEAD_BYTES;
+    }
+
+    /**
+     * Metadatos del borrador si existe y tokeniza igual que el modelo principal, o null
+     */
+    private static GgufMetadata readCompatibleDraft(Path modelFile, GgufMetadata metadata, Path draftFile) {
+        GgufMetadata draft = Files.exists(draftFile) ? readMetadata(draftFile) : null;
+        String problem = draft == null ? "no se puede leer"
+                : metadata == null ? "no se pueden leer los metadatos de " + modelFile.getFileName()
+                : !metadata.hasSameTokenizer(draft) ? "su tokenizador no coincide con el de " + modelFile.getFileName()
+                : null;
+        if (problem != null) {
+            PluginLogger.log("Se ignora el modelo borrador " + draftFile + ": " + problem, PluginLogger.Level.WARN);
+            return null;
+        }
+        return draft;
+    }
+
+    private static GgufMetadata readMetadata(Path modelFile) {
+        try {
+            return GgufMetadata.read(modelFile);
+        } catch (IOException e) {
+            PluginLogger.log("No se pudieron leer los metadatos GGUF de " + modelFile + ": " + e.getMessage(),
+                    PluginLogger.Level.DEBUG);
+            return null;
+        }
+    }
+
+    private static long fileSize(Path file) {
+        try {
+            return Files.exists(file) ? Files.size(file) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
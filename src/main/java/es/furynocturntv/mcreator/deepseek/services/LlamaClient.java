@@ -1,9 +1,18 @@
 package es.furynocturntv.mcreator.deepseek.services;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import es.furynocturntv.mcreator.deepseek.api.CircuitOpenException;
+import es.furynocturntv.mcreator.deepseek.models.LaunchProfile;
 import es.furynocturntv.mcreator.deepseek.models.LocalModel;
 import es.furynocturntv.mcreator.deepseek.models.ModelResponse;
+import es.furynocturntv.mcreator.deepseek.utils.CircuitBreaker;
+import es.furynocturntv.mcreator.deepseek.utils.CircuitBreakerRegistry;
+import es.furynocturntv.mcreator.deepseek.utils.PluginLogger;
+import es.furynocturntv.mcreator.deepseek.utils.ProcessOutputPump;
 import okhttp3.*;
+import org.json.JSONObject;
+import okio.BufferedSource;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -11,41 +20,59 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
 
 /**
  * Cliente para interactuar con el servidor local de LLaMA.cpp
  * Gestiona el inicio/parada del servidor y las peticiones de generación.
  */
 public class LlamaClient {
-    private static final String LOCAL_HOST = "http://127.0.0.1:8080";
     private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    // Línea con la que llama.cpp anuncia que acepta peticiones (según la versión)
+    private static final Pattern READY_LINE =
+            Pattern.compile("server is listening on|HTTP server listening|starting the main loop");
+    private static final int OUTPUT_LINES = 500;
+    private static final long MIN_HEALTH_BACKOFF_MS = 50;
+    private static final long MAX_HEALTH_BACKOFF_MS = 2000;
 
     private final OkHttpClient httpClient;
     private final Path modelsDir;
     private final Path binariesDir;
     private Process llamaProcess;
+    private ProcessOutputPump output;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final CircuitBreaker circuitBreaker;
+    private final int port;
+    private final String baseUrl;
 
-    public LlamaClient(Path modelsDir, Path binariesDir) {
+    /**
+     * @param name Nombre del modelo servido; identifica el cortocircuito de este servidor
+     * @param port Puerto local en el que escucha el servidor (lo asigna LlamaServerPool)
+     */
+    public LlamaClient(String name, Path modelsDir, Path binariesDir, int port) {
+        this.port = port;
+        this.baseUrl = "http://127.0.0.1:" + port;
         this.modelsDir = modelsDir;
         this.binariesDir = binariesDir;
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(5, TimeUnit.MINUTES)
-                .build();
+        this.httpClient = HttpRuntime.getInstance().getLocalClient();
+        this.circuitBreaker = CircuitBreakerRegistry.getInstance().local(name);
     }
 
     /**
      * Inicia el servidor de LLaMA con el modelo especificado
      * @param modelName Nombre del modelo a cargar
+     * @param profile Hilos, lotes, contexto y opciones de memoria del servidor
      * @param timeoutMs Tiempo máximo de espera para el inicio del servidor
-     * @throws IOException Si hay problemas al iniciar el proceso
+     * @throws IOException Si hay problemas al iniciar el proceso o este termina antes de estar listo
      * @throws TimeoutException Si el servidor no responde en el tiempo especificado
      */
-    public void startServer(String modelName, int timeoutMs) throws IOException, TimeoutException {
-        Path modelPath = modelsDir.resolve(modelName + ".gguf");
+    public void startServer(String modelName, LaunchProfile profile, int timeoutMs)
+            throws IOException, TimeoutException {
+        Path modelPath = getModelFile(modelName);
         if (!Files.exists(modelPath)) {
             throw new FileNotFoundException("Model file not found: " + modelPath);
         }
@@ -62,36 +89,59 @@ public class LlamaClient {
         command.add("-m");
         command.add(modelPath.toString());
         command.add("--port");
-        command.add("8080");
-        command.add("--n-gpu-layers");
-        command.add("35"); // Ajustar según GPU
-        command.add("--ctx-size");
-        command.add("2048");
+        command.add(String.valueOf(port));
+        command.addAll(profile.toArguments());
 
         ProcessBuilder builder = new ProcessBuilder(command);
         builder.redirectErrorStream(true);
         llamaProcess = builder.start();
 
-        // Esperar a que el servidor esté listo
-        long startTime = System.currentTimeMillis();
-        while (System.currentTimeMillis() - startTime < timeoutMs) {
+        // La salida se lee siempre: si nadie la consume, la tubería se llena y el servidor se bloquea
+        output = new ProcessOutputPump(circuitBreaker.getName(), OUTPUT_LINES);
+        output.start(llamaProcess, READY_LINE);
+        CompletableFuture<String> readyLine = output.getMatchedLine();
+
+        // Esperar a la línea "listening" del log; /health con espera creciente sirve de respaldo
+        // para versiones que no la escriben y confirma que el modelo ya está cargado
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long backoff = MIN_HEALTH_BACKOFF_MS;
+        while (true) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new TimeoutException("Server did not start within timeout period");
+            }
+
+            long wait = Math.min(backoff, remaining);
             try {
-                if (isServerReady()) {
-                    return;
+                if (readyLine.isDone()) {
+                    Thread.sleep(wait);
+                } else {
+                    readyLine.get(wait, TimeUnit.MILLISECONDS);
                 }
-                Thread.sleep(500);
+            } catch (TimeoutException | ExecutionException e) {
+                // Sin línea todavía (o salida cerrada): se comprueba igualmente el estado
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 throw new IOException("Interrupted while waiting for server");
             }
-        }
 
-        throw new TimeoutException("Server did not start within timeout period");
+            if (isServerReady()) {
+                return;
+            }
+            // Si el puerto ya estaba ocupado o el modelo no es válido el proceso termina enseguida
+            if (!llamaProcess.isAlive()) {
+                throw new IOException("llama.cpp server exited with code " + llamaProcess.exitValue()
+                        + ":" + System.lineSeparator() + output.tail(5));
+            }
+            // Tras la línea "listening" solo falta que termine la carga: se sondea deprisa
+            backoff = readyLine.isDone() && !readyLine.isCompletedExceptionally()
+                    ? MIN_HEALTH_BACKOFF_MS : Math.min(backoff * 2, MAX_HEALTH_BACKOFF_MS);
+        }
     }
 
     private boolean isServerReady() {
         Request request = new Request.Builder()
-                .url(LOCAL_HOST + "/health")
+                .url(baseUrl + "/health")
                 .get()
                 .build();
 
@@ -114,19 +164,267 @@ public class LlamaClient {
         RequestBody body = RequestBody.create(json, JSON);
 
         Request request = new Request.Builder()
-                .url(LOCAL_HOST + "/completion")
+                .url(baseUrl + "/completion")
                 .post(body)
                 .build();
 
-        try (Response response = httpClient.newCall(request).execute()) {
+        CircuitBreaker.Permit permit = circuitBreaker.tryAcquire();
+        if (permit == null) {
+            throw new CircuitOpenException(circuitBreaker.getName(), circuitBreaker.getRemainingOpenMillis());
+        }
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = httpClient.newCall(request).execute();
+        } catch (IOException e) {
+            permit.onFailure();
+            throw e;
+        }
+
+        try (response) {
+            recordHealth(response, start, permit, false);
             if (!response.isSuccessful()) {
                 throw new IOException("Unexpected code " + response);
             }
 
-            return objectMapper.readValue(response.body().string(), ModelResponse.class);
+            return withTimings(objectMapper.readValue(response.body().string(), ModelResponse.class));
+        }
+    }
+
+    /**
+     * Genera una respuesta sin bloquear el hilo llamante
+     * @param params Parámetros de generación (temperatura, top_p, etc)
+     * @param listener Si no es null se pide stream=true y se le entrega cada token según llega
+     * @return Future con la respuesta; cancelarlo aborta la llamada HTTP y con ella la generación
+     */
+    public CompletableFuture<ModelResponse> generateResponseAsync(LocalModel.GenerationParams params,
+                                                                  StreamListener listener) {
+        params.stream = listener != null;
+        RequestBody body;
+        try {
+            body = RequestBody.create(objectMapper.writeValueAsString(params), JSON);
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        Request request = new Request.Builder()
+                .url(baseUrl + "/completion")
+                .post(body)
+                .build();
+
+        // Con el servidor caído o colgado se falla al instante en lugar de agotar el timeout
+        CircuitBreaker.Permit permit = circuitBreaker.tryAcquire();
+        if (permit == null) {
+            return CompletableFuture.failedFuture(new CircuitOpenException(circuitBreaker.getName(),
+                    circuitBreaker.getRemainingOpenMillis()));
+        }
+
+        Call call = httpClient.newCall(request);
+        CompletableFuture<ModelResponse> future = new CompletableFuture<>();
+        long start = System.nanoTime();
+
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                // Una cancelación no dice nada de la salud del servidor
+                if (call.isCanceled()) {
+                    permit.release();
+                } else {
+                    permit.onFailure();
+                }
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    recordHealth(response, start, permit, listener != null);
+                    if (!response.isSuccessful()) {
+                        throw new IOException("Unexpected code " + response);
+                    }
+
+                    future.complete(withTimings(listener != null
+                            ? readEventStream(response, listener)
+                            : objectMapper.readValue(response.body().string(), ModelResponse.class)));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Guarda en disco la caché KV de un slot (requiere arrancar con --slot-save-path)
+     * @param filename Nombre del archivo dentro del directorio de slots
+     */
+    public void saveSlot(int slot, String filename) throws IOException {
+        try (Response response = httpClient.newCall(slotRequest(slot, "save", filename)).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Slot save failed: " + response.code() + " - " + response.body().string());
+            }
         }
     }
 
+    /**
+     * Carga en un slot la caché KV guardada con {@link #saveSlot}, sin bloquear el hilo llamante
+     */
+    public CompletableFuture<Void> restoreSlotAsync(int slot, String filename) {
+        Call call = httpClient.newCall(slotRequest(slot, "restore", filename));
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    if (!response.isSuccessful()) {
+                        throw new IOException("Slot restore failed: " + response.code() + " - "
+                                + response.body().string());
+                    }
+                    future.complete(null);
+                } catch (IOException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+
+        future.whenComplete((ignored, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Las operaciones de slots no pasan por el cortocircuito: no son generaciones
+     */
+    private Request slotRequest(int slot, String action, String filename) {
+        String json = "{\"filename\":" + JSONObject.quote(filename) + "}";
+        return new Request.Builder()
+                .url(baseUrl + "/slots/" + slot + "?action=" + action)
+                .post(RequestBody.create(json, JSON))
+                .build();
+    }
+
+    /**
+     * Lee los eventos data: de /completion según llegan. Cada uno trae un fragmento en "content";
+     * el último (stop = true) trae además los contadores y los tiempos de la generación.
+     * @return Respuesta con el texto completo y las estadísticas del último evento
+     */
+    private ModelResponse readEventStream(Response response, StreamListener listener) throws IOException {
+        StringBuilder text = new StringBuilder();
+        ModelResponse last = new ModelResponse();
+        BufferedSource source = response.body().source();
+
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (!line.startsWith("data:")) {
+                continue;
+            }
+            String data = line.substring(5).trim();
+            if (data.isEmpty()) {
+                continue;
+            }
+
+            ModelResponse event = objectMapper.readValue(data, ModelResponse.class);
+            if (event.text != null && !event.text.isEmpty()) {
+                text.append(event.text);
+                listener.onDelta(event.text);
+            }
+            last = event;
+            if (event.stop) {
+                break;
+            }
+        }
+
+        last.text = text.toString();
+        return last;
+    }
+
+    /**
+     * Completa el tiempo total de inferencia a partir de los tiempos de llama.cpp
+     */
+    private ModelResponse withTimings(ModelResponse response) {
+        if (response.timings != null) {
+            response.inferenceTimeMs = Math.round(response.timings.promptMs + response.timings.predictedMs);
+            String draft = response.getDraftAcceptanceRate() >= 0
+                    ? String.format(", borrador %d/%d aceptados", response.timings.draftAccepted,
+                            response.timings.draftTokens)
+                    : "";
+            PluginLogger.log(String.format("%s: %d tokens en %d ms (%.1f tok/s%s)", circuitBreaker.getName(),
+                    response.tokensGenerated, response.inferenceTimeMs, response.getTokensPerSecond(), draft),
+                    PluginLogger.Level.DEBUG);
+        }
+        return response;
+    }
+
+    /**
+     * Los errores 5xx cuentan como fallo del servidor; el resto de respuestas, como llamada sana.
+     * Sin streaming las cabeceras llegan con la generación completa, cuya duración depende del
+     * modelo y de la longitud pedida, así que la lentitud solo se mide en streaming y hasta el
+     * primer byte del cuerpo.
+     */
+    private static void recordHealth(Response response, long startNanos, CircuitBreaker.Permit permit,
+                                     boolean streamed) throws IOException {
+        if (response.code() >= 500) {
+            permit.onFailure();
+            return;
+        }
+        if (!streamed || !response.isSuccessful()) {
+            permit.onSuccess();
+            return;
+        }
+
+        try {
+            response.body().source().request(1);
+        } catch (IOException e) {
+            permit.onFailure();
+            throw e;
+        }
+        permit.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Archivo GGUF que carga el servidor para el modelo indicado
+     */
+    public Path getModelFile(String modelName) {
+        return modelsDir.resolve(modelName + ".gguf");
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Últimas líneas de salida del servidor, o null si no se ha arrancado
+     */
+    public ProcessOutputPump getOutput() {
+        return output;
+    }
+
+    /**
+     * Indica si el proceso del servidor sigue vivo
+     */
+    public boolean isRunning() {
+        return llamaProcess != null && llamaProcess.isAlive();
+    }
+
     public void stopServer() throws IOException {
         if (llamaProcess != null && llamaProcess.isAlive()) {
             llamaProcess.destroy();
@@ -0,0 +1,76 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import es.furynocturntv.mcreator.deepseek.models.LocalModel;
+import es.furynocturntv.mcreator.deepseek.models.ModelResponse;
+import es.furynocturntv.mcreator.deepseek.utils.Futures;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Modelo local servido por llama.cpp. El modelo se carga (arrancando su servidor) en la
+ * primera solicitud. De la solicitud se toman el máximo de tokens (acotado por el del modelo),
+ * la temperatura, top_p, la gramática y la conversación cuyo slot se reutiliza; las secuencias
+ * de parada, la penalización por repetición y el formateo de la respuesta los fija el tipo de modelo.
+ */
+public class LlamaCppBackend implements LlmBackend {
+    private final LocalModel model;
+    private final Executor loadExecutor;
+    private final LongSupplier timeoutSeconds;
+
+    /**
+     * @param loadExecutor Executor donde cargar el modelo si aún no está en memoria
+     * @param timeoutSeconds Tiempo máximo de una generación
+     */
+    public LlamaCppBackend(LocalModel model, Executor loadExecutor, LongSupplier timeoutSeconds) {
+        this.model = model;
+        this.loadExecutor = loadExecutor;
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    @Override
+    public String getName() {
+        return "local:" + model.getName();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return model.isAvailable();
+    }
+
+    /**
+     * Con listener los tokens llegan en streaming desde /completion; el resultado final trae el
+     * texto ya procesado según el tipo de modelo y los tokens que contó llama.cpp
+     */
+    @Override
+    public CompletableFuture<LlmResult> generate(LlmRequest request, StreamListener listener) {
+        // Los modelos locales trabajan por completado: la conversación se envía como transcripción
+        String prompt = ChatMessage.toTranscript(request.messages);
+
+        // La carga del modelo usa el executor; la generación no ocupa ningún hilo. Con conversationId
+        // los turnos de una misma conversación vuelven al slot que ya tiene su caché
+        CompletableFuture<ModelResponse> generation = model.generateAsync(prompt, loadExecutor, request, listener);
+        CompletableFuture<ModelResponse> timed = generation.copy()
+                .orTimeout(timeoutSeconds.getAsLong(), TimeUnit.SECONDS);
+
+        // Tanto la cancelación como el timeout cortan la conexión con llama.cpp
+        timed.whenComplete((response, error) -> {
+            if (error != null) {
+                generation.cancel(true);
+            }
+        });
+
+        CompletableFuture<LlmResult> result = timed.thenApply(response -> {
+            LlmResult llmResult = new LlmResult(response.text);
+            if (response.tokensGenerated > 0) {
+                llmResult.promptTokens = response.tokensEvaluated;
+                llmResult.completionTokens = response.tokensGenerated;
+            }
+            return llmResult;
+        });
+        Futures.propagateCancel(result, timed);
+        return result;
+    }
+}
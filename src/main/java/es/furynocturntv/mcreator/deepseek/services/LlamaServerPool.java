@@ -0,0 +1,861 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import es.furynocturntv.mcreator.deepseek.models.LaunchProfile;
+import es.furynocturntv.mcreator.deepseek.models.LocalModel;
+import es.furynocturntv.mcreator.deepseek.models.ModelResponse;
+import es.furynocturntv.mcreator.deepseek.utils.Futures;
+import es.furynocturntv.mcreator.deepseek.utils.HardwareInfo;
+import es.furynocturntv.mcreator.deepseek.utils.PluginLogger;
+import es.furynocturntv.mcreator.deepseek.utils.ProcessOutputPump;
+import es.furynocturntv.mcreator.deepseek.utils.TaskExecutor;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Servidores llama.cpp de todos los modelos locales.
+ *
+ * Cada réplica es un proceso propio en un puerto libre elegido al arrancar, de modo que
+ * varios modelos (p. ej. el de código y el de chat) pueden estar cargados a la vez. Las
+ * solicitudes van a la réplica con menos generaciones en curso y, si todas están ocupadas,
+ * se arranca otra en segundo plano hasta el máximo por modelo.
+ *
+ * Ningún arranque puede superar el presupuesto global de memoria (pesos del GGUF más el
+ * contexto) ni de hilos de CPU. Si falta sitio para cargar un modelo se descargan antes los
+ * modelos inactivos usados hace más tiempo (LRU); si ni así cabe, el modelo no se carga.
+ * Las réplicas que llevan un tiempo configurable sin uso se detienen para devolver la
+ * memoria al sistema (p. ej. a las compilaciones de Gradle de MCreator).
+ *
+ * Cada réplica tiene varios slots (--parallel) con su propia caché KV. Una conversación queda
+ * fijada al slot que la atendió, de modo que el siguiente turno solo evalúa los tokens nuevos.
+ * Al detener una réplica se guarda en disco la caché de sus conversaciones y se restaura
+ * cuando la conversación vuelve, también tras reiniciar el IDE.
+ *
+ * Implementa un patrón Singleton: los procesos son del plugin, no de cada cliente.
+ */
+public class LlamaServerPool {
+    private static final int START_TIMEOUT_MS = 120000; // 2 minutos para cargar el modelo
+    private static final int START_ATTEMPTS = 3;
+    private static final int DEFAULT_MEMORY_PERCENT = 75;
+    private static final long IDLE_SWEEP_SECONDS = 30;
+    // Tiempo que una réplica recién arrancada no se descarga para otro modelo mientras espera su primera generación
+    private static final long FIRST_LEASE_GRACE_MS = 60000;
+    // Cachés de slot guardadas que se conservan por modelo (cada una ocupa decenas de MB)
+    private static final int MAX_SAVED_SLOTS = 8;
+    private static final String SLOT_FILE_EXTENSION = ".bin";
+
+    private static LlamaServerPool instance;
+
+    private final Path binariesDir;
+    private final Path slotsDir;
+    private final TaskExecutor.TaskGroup serverTasks;
+    private final Map<String, List<Replica>> replicas = new ConcurrentHashMap<>();
+    private final Map<String, Object> startLocks = new ConcurrentHashMap<>();
+    private final Set<Integer> reservedPorts = ConcurrentHashMap.newKeySet();
+    private final Set<String> scalingUp = ConcurrentHashMap.newKeySet();
+    // Réplicas arrancando por modelo, para repartir los hilos entre los modelos que estarán cargados
+    private final Map<String, Integer> startingReplicas = new ConcurrentHashMap<>();
+    // Contexto por slot del último arranque de cada modelo, para ajustar prompts aunque esté descargado
+    private final Map<String, Integer> slotContexts = new ConcurrentHashMap<>();
+
+    private IntSupplier replicasPerModel = () -> 1;
+    private IntSupplier memoryBudgetMb = () -> 0;
+    private IntSupplier cpuThreads = () -> 0;
+    private IntSupplier idleUnloadMinutes = () -> 0;
+    private IntSupplier parallelSlots = () -> 1;
+    // Presupuesto apartado para réplicas que todavía están arrancando
+    private long pendingMemory;
+    private int pendingThreads;
+    private boolean shutDown;
+
+    /**
+     * Proceso llama.cpp que sirve un modelo
+     */
+    public static class Replica {
+        private final String modelName;
+        private final int index;
+        private final LlamaClient client;
+        private final LaunchProfile profile;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong served = new AtomicLong();
+        // Totales de las generaciones con tiempos, para comparar con y sin borrador
+        private final AtomicLong predictedTokens = new AtomicLong();
+        private final AtomicLong predictedMicros = new AtomicLong();
+        private final AtomicLong draftTokens = new AtomicLong();
+        private final AtomicLong draftAccepted = new AtomicLong();
+        private final Slot[] slots;
+        private volatile long lastUsedNanos = System.nanoTime();
+        private volatile boolean leased = false;
+
+        Replica(String modelName, int index, LlamaClient client, LaunchProfile profile) {
+            this.modelName = modelName;
+            this.index = index;
+            this.client = client;
+            this.profile = profile;
+            this.slots = new Slot[Math.max(1, profile.parallel)];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = new Slot(i);
+            }
+        }
+
+        public String getModelName() { return modelName; }
+        public int getIndex() { return index; }
+        public int getPort() { return client.getPort(); }
+        public LaunchProfile getProfile() { return profile; }
+        public int getInFlight() { return inFlight.get(); }
+        public long getServed() { return served.get(); }
+        public long getIdleMillis() { return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastUsedNanos); }
+        public boolean isRunning() { return client.isRunning(); }
+        public ProcessOutputPump getOutput() { return client.getOutput(); }
+
+        /**
+         * Tokens por segundo de generación sumando todas las respuestas, o 0 sin datos
+         */
+        public double getTokensPerSecond() {
+            long micros = predictedMicros.get();
+            return micros > 0 ? predictedTokens.get() * 1_000_000.0 / micros : 0;
+        }
+
+        /**
+         * Fracción de los tokens del borrador aceptados por el modelo principal, o -1 sin borrador
+         */
+        public double getDraftAcceptanceRate() {
+            long proposed = draftTokens.get();
+            return proposed > 0 ? (double) draftAccepted.get() / proposed : -1;
+        }
+
+        private void record(ModelResponse response) {
+            if (response == null || response.timings == null) {
+                return;
+            }
+            predictedTokens.addAndGet(response.tokensGenerated);
+            predictedMicros.addAndGet(Math.round(response.timings.predictedMs * 1000));
+            draftTokens.addAndGet(response.timings.draftTokens);
+            draftAccepted.addAndGet(response.timings.draftAccepted);
+        }
+
+        /**
+         * Slots con una conversación fijada
+         */
+        public long getPinnedSlots() {
+            return Arrays.stream(slots).filter(slot -> slot.key != null).count();
+        }
+    }
+
+    /**
+     * Slot de una réplica; los campos se protegen con el monitor del conjunto
+     */
+    private static class Slot {
+        private final int id;
+        // Clave de la conversación cuya caché KV contiene, o null
+        private String key;
+        private boolean busy;
+        private long lastUsedNanos;
+
+        Slot(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Réplica y slot asignados a una generación
+     * @param slot Slot reservado, o null si todos estaban ocupados (lo elige llama.cpp)
+     * @param restoreFile Caché guardada que cargar en el slot antes de generar, o null
+     */
+    private record Lease(Replica replica, Slot slot, String restoreFile) {
+    }
+
+    private LlamaServerPool() {
+        this.binariesDir = Path.of(System.getProperty("user.home"), ".deepseek-mcreator", "binaries");
+        this.slotsDir = Path.of(System.getProperty("user.home"), ".deepseek-mcreator", "slots");
+        this.serverTasks = TaskExecutor.getInstance().group("llama-servers");
+
+        // Los procesos de llama.cpp no deben sobrevivir al IDE
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+        serverTasks.scheduleAtFixedRate(this::unloadIdle, IDLE_SWEEP_SECONDS, IDLE_SWEEP_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public static synchronized LlamaServerPool getInstance() {
+        if (instance == null) {
+            instance = new LlamaServerPool();
+        }
+        return instance;
+    }
+
+    /**
+     * Fija los límites del conjunto (se consultan en cada arranque)
+     * @param replicasPerModel Procesos máximos por modelo
+     * @param memoryBudgetMb Memoria total en MB, o 0 para usar el 75 % de la RAM física
+     * @param cpuThreads Hilos totales, o 0 para uno por núcleo físico
+     */
+    public void setLimits(IntSupplier replicasPerModel, IntSupplier memoryBudgetMb, IntSupplier cpuThreads) {
+        this.replicasPerModel = replicasPerModel;
+        this.memoryBudgetMb = memoryBudgetMb;
+        this.cpuThreads = cpuThreads;
+    }
+
+    /**
+     * Fija tras cuántos minutos sin uso se detiene una réplica (0 para no detenerlas nunca)
+     */
+    public void setIdleUnload(IntSupplier minutes) {
+        this.idleUnloadMinutes = minutes;
+    }
+
+    /**
+     * Fija los slots por réplica (se consulta en cada arranque)
+     */
+    public void setParallelSlots(IntSupplier slots) {
+        this.parallelSlots = slots;
+    }
+
+    /**
+     * Arranca la primera réplica del modelo si no tiene ninguna en marcha
+     * @throws IOException Si el proceso no arranca o no cabe en el presupuesto
+     * @throws TimeoutException Si el servidor no responde a tiempo
+     */
+    public void ensureStarted(LocalModel model) throws IOException, TimeoutException {
+        synchronized (startLocks.computeIfAbsent(model.getName(), name -> new Object())) {
+            if (liveReplicas(model.getName()).isEmpty()) {
+                startReplica(model, true);
+            }
+        }
+    }
+
+    /**
+     * Genera con la réplica menos ocupada del modelo, esperando la respuesta
+     */
+    public ModelResponse generate(LocalModel model, LocalModel.GenerationParams params, int timeoutMs)
+            throws IOException, TimeoutException {
+        Lease lease = acquire(model, null);
+        try {
+            params.slot = lease.slot() != null ? lease.slot().id : -1;
+            ModelResponse response = lease.replica().client.generateResponse(params, timeoutMs);
+            lease.replica().record(response);
+            return response;
+        } finally {
+            release(lease);
+        }
+    }
+
+    /**
+     * Genera con la réplica menos ocupada del modelo sin bloquear el hilo llamante
+     * @param cacheKey Clave de la conversación para reutilizar su slot y su caché, o null
+     * @param listener Receptor de los tokens según llegan, o null para la respuesta completa
+     * @return Future con la respuesta; cancelarlo aborta la generación
+     */
+    public CompletableFuture<ModelResponse> generateAsync(LocalModel model, LocalModel.GenerationParams params,
+                                                          String cacheKey, StreamListener listener) {
+        Lease lease;
+        try {
+            lease = acquire(model, cacheKey);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        Replica replica = lease.replica();
+        params.slot = lease.slot() != null ? lease.slot().id : -1;
+
+        // Sin la caché guardada la conversación se evalúa entera, así que un fallo no es grave
+        CompletableFuture<Void> restored = CompletableFuture.completedFuture(null);
+        if (lease.restoreFile() != null) {
+            restored = replica.client.restoreSlotAsync(lease.slot().id, lease.restoreFile())
+                    .exceptionally(error -> {
+                        PluginLogger.log("No se pudo restaurar la caché de " + lease.restoreFile() + ": "
+                                + Futures.unwrap(error).getMessage(), PluginLogger.Level.DEBUG);
+                        return null;
+                    });
+        }
+
+        // La réplica se libera antes de que el llamante vea el resultado
+        CompletableFuture<ModelResponse> generation = Futures.thenComposeCancellable(
+                restored, ignored -> replica.client.generateResponseAsync(params, listener));
+        CompletableFuture<ModelResponse> result = generation.whenComplete((response, error) -> {
+            replica.record(response);
+            release(lease);
+        });
+        Futures.propagateCancel(result, generation);
+        return result;
+    }
+
+    /**
+     * Indica si el modelo tiene algún servidor en marcha
+     */
+    public boolean isRunning(String modelName) {
+        return !liveReplicas(modelName).isEmpty();
+    }
+
+    /**
+     * Indica si alguna réplica del modelo aceptaría ahora una solicitud. Un modelo sin
+     * réplicas se considera disponible: se cargará con la primera solicitud.
+     */
+    public boolean isAvailable(String modelName) {
+        List<Replica> live = liveReplicas(modelName);
+        return live.isEmpty() || live.stream().anyMatch(r -> r.client.getCircuitBreaker().isCallPermitted());
+    }
+
+    /**
+     * Generaciones locales que pueden estar en curso a la vez: los slots de las réplicas
+     * permitidas de cada modelo cargado (al menos de uno)
+     */
+    public int getCapacity() {
+        long models = replicas.keySet().stream().filter(this::isRunning).count();
+        return (int) Math.max(1, models) * Math.max(1, replicasPerModel.getAsInt())
+                * Math.max(1, parallelSlots.getAsInt());
+    }
+
+    /**
+     * Tokens de contexto de cada slot del modelo (--ctx-size / --parallel): el menor de sus
+     * réplicas en marcha, o el del último arranque, o 0 si nunca se ha cargado
+     */
+    public int getSlotContext(String modelName) {
+        return liveReplicas(modelName).stream()
+                .mapToInt(replica -> replica.profile.contextSize / Math.max(1, replica.profile.parallel))
+                .min()
+                .orElse(slotContexts.getOrDefault(modelName, 0));
+    }
+
+    /**
+     * Detiene todas las réplicas de un modelo, guardando antes la caché de sus conversaciones
+     */
+    public void stop(String modelName) {
+        List<Replica> removed = replicas.remove(modelName);
+        if (removed != null) {
+            removed.forEach(this::stopReplica);
+        }
+    }
+
+    /**
+     * Detiene todos los servidores; después no se arranca ninguno más
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutDown = true;
+        }
+        new ArrayList<>(replicas.keySet()).forEach(this::stop);
+    }
+
+    /**
+     * Réplicas en marcha agrupadas por modelo
+     */
+    public Map<String, List<Replica>> getReplicas() {
+        Map<String, List<Replica>> snapshot = new TreeMap<>();
+        replicas.keySet().forEach(name -> {
+            List<Replica> live = liveReplicas(name);
+            if (!live.isEmpty()) {
+                snapshot.put(name, live);
+            }
+        });
+        return snapshot;
+    }
+
+    /**
+     * Resumen legible del presupuesto y de cada réplica
+     */
+    public String describe() {
+        StringBuilder summary = new StringBuilder();
+        Map<String, List<Replica>> snapshot = getReplicas();
+        long usedMemory = 0;
+        int usedThreads = 0;
+        for (List<Replica> list : snapshot.values()) {
+            for (Replica replica : list) {
+                usedMemory += replica.profile.estimatedMemoryBytes;
+                usedThreads += replica.profile.threads;
+            }
+        }
+
+        summary.append(String.format("Servidores llama.cpp: memoria %d/%d MB, hilos %d/%d%n",
+                toMb(usedMemory), toMb(getMemoryBudget()), usedThreads, getThreadBudget()));
+        snapshot.forEach((name, list) -> list.forEach(replica -> summary.append(String.format(
+                "  %-24s puerto %d, en curso %d, servidas %d, conversaciones %d, %.1f tok/s%s, %d MB, %s%n",
+                name + "#" + replica.index, replica.getPort(), replica.getInFlight(), replica.getServed(),
+                replica.getPinnedSlots(), replica.getTokensPerSecond(),
+                replica.getDraftAcceptanceRate() >= 0
+                        ? String.format(", borrador aceptado %.0f %%", replica.getDraftAcceptanceRate() * 100) : "",
+                toMb(replica.profile.estimatedMemoryBytes), replica.profile.describe()))));
+        return summary.toString();
+    }
+
+    /**
+     * Toma el slot donde ya está la conversación si sigue libre; si no, la réplica con menos
+     * generaciones en curso (prefiriendo las de cortocircuito cerrado) y en ella el slot libre
+     * usado hace más tiempo. Si la réplica elegida ya tenía todos los slots ocupados, pide otra
+     * réplica en segundo plano.
+     */
+    private Lease acquire(LocalModel model, String cacheKey) throws IOException {
+        Replica chosen;
+        Slot slot = null;
+        String restoreFile = null;
+        int live;
+        synchronized (this) {
+            List<Replica> candidates = liveReplicas(model.getName());
+            if (candidates.isEmpty()) {
+                throw new IOException("Local model not loaded: " + model.getName());
+            }
+            live = candidates.size();
+
+            chosen = null;
+            if (cacheKey != null) {
+                for (Replica replica : candidates) {
+                    for (Slot candidate : replica.slots) {
+                        if (cacheKey.equals(candidate.key) && !candidate.busy
+                                && replica.client.getCircuitBreaker().isCallPermitted()) {
+                            chosen = replica;
+                            slot = candidate;
+                        }
+                    }
+                }
+            }
+
+            if (chosen == null) {
+                Comparator<Replica> byLoad = Comparator
+                        .comparing((Replica r) -> !r.client.getCircuitBreaker().isCallPermitted())
+                        .thenComparingInt(Replica::getInFlight);
+                chosen = candidates.stream().min(byLoad).get();
+                // Primero los slots vacíos; después el que lleva más tiempo sin uso
+                slot = Arrays.stream(chosen.slots)
+                        .filter(candidate -> !candidate.busy)
+                        .min(Comparator.comparing((Slot candidate) -> candidate.key != null)
+                                .thenComparingLong(candidate -> candidate.lastUsedNanos))
+                        .orElse(null);
+                if (slot != null) {
+                    slot.key = cacheKey;
+                    if (cacheKey != null && Files.exists(slotFile(model.getName(), cacheKey))) {
+                        restoreFile = cacheKey + SLOT_FILE_EXTENSION;
+                    }
+                }
+            }
+
+            if (slot != null) {
+                slot.busy = true;
+                slot.lastUsedNanos = System.nanoTime();
+            }
+            chosen.inFlight.incrementAndGet();
+            chosen.lastUsedNanos = System.nanoTime();
+            chosen.leased = true;
+        }
+
+        if (chosen.getInFlight() > chosen.slots.length && live < replicasPerModel.getAsInt()
+                && scalingUp.add(model.getName())) {
+            serverTasks.execute(() -> {
+                try {
+                    startReplica(model, false);
+                } catch (Exception e) {
+                    PluginLogger.log("No se pudo arrancar otra réplica de " + model.getName() + ": "
+                            + e.getMessage(), PluginLogger.Level.DEBUG);
+                } finally {
+                    scalingUp.remove(model.getName());
+                }
+            });
+        }
+        return new Lease(chosen, slot, restoreFile);
+    }
+
+    private void release(Lease lease) {
+        Replica replica = lease.replica();
+        synchronized (this) {
+            if (lease.slot() != null) {
+                lease.slot().busy = false;
+                lease.slot().lastUsedNanos = System.nanoTime();
+            }
+        }
+        replica.lastUsedNanos = System.nanoTime();
+        replica.inFlight.decrementAndGet();
+        replica.served.incrementAndGet();
+    }
+
+    /**
+     * Detiene las réplicas sin generaciones en curso que superan el tiempo de inactividad
+     */
+    private void unloadIdle() {
+        int minutes = idleUnloadMinutes.getAsInt();
+        if (minutes <= 0) {
+            return;
+        }
+
+        long limit = TimeUnit.MINUTES.toMillis(minutes);
+        List<Replica> idle = new ArrayList<>();
+        synchronized (this) {
+            for (List<Replica> list : replicas.values()) {
+                for (Replica replica : list) {
+                    if (replica.getInFlight() == 0 && replica.getIdleMillis() >= limit && list.remove(replica)) {
+                        idle.add(replica);
+                    }
+                }
+            }
+        }
+
+        for (Replica replica : idle) {
+            PluginLogger.log(String.format("Se descarga %s (réplica %d) tras %d min sin uso",
+                    replica.modelName, replica.index, minutes), PluginLogger.Level.INFO);
+            stopReplica(replica);
+        }
+    }
+
+    /**
+     * Arranca una réplica del modelo, que cuenta como cargado mientras arranca
+     * @param evict Si se pueden descargar modelos inactivos para hacer sitio
+     */
+    private void startReplica(LocalModel model, boolean evict) throws IOException, TimeoutException {
+        String name = model.getName();
+        startingReplicas.merge(name, 1, Integer::sum);
+        try {
+            launchReplica(model, evict);
+        } finally {
+            startingReplicas.computeIfPresent(name, (key, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * Arranca una réplica en un puerto libre, apartando antes su parte del presupuesto. El perfil
+     * de arranque se planifica con los núcleos repartidos entre los modelos cargados o arrancando
+     * y la memoria que queda libre. Si el proceso termina al arrancar (p. ej. otro programa tomó
+     * el puerto) se reintenta con otro.
+     */
+    private void launchReplica(LocalModel model, boolean evict) throws IOException, TimeoutException {
+        String name = model.getName();
+        Path modelsDir = model.getModelPath().getParent();
+        int allotment = Math.max(1, getThreadBudget()
+                / (residentModels(name) * Math.max(1, replicasPerModel.getAsInt())));
+        long reclaimable = evict ? getIdleMemory(name) : 0;
+        Path draftFile = model.getDraftModel() != null ? modelsDir.resolve(model.getDraftModel() + ".gguf") : null;
+        LaunchProfile profile = LaunchProfilePlanner.plan(modelsDir.resolve(name + ".gguf"), draftFile,
+                model.getLaunchOverrides(), allotment, parallelSlots.getAsInt(),
+                getMemoryBudget() - getUsedMemory() + reclaimable, reclaimable);
+        profile.slotSavePath = prepareSlotDirectory(name);
+        long memory = profile.estimatedMemoryBytes;
+        int threads = profile.threads;
+
+        // Los modelos descargados para hacer sitio se detienen antes de arrancar el nuevo
+        for (Replica replica : reserve(name, memory, threads, evict)) {
+            PluginLogger.log(String.format("Se descarga %s (réplica %d, sin uso hace %d s) para cargar %s",
+                    replica.modelName, replica.index, replica.getIdleMillis() / 1000, name),
+                    PluginLogger.Level.INFO);
+            stopReplica(replica);
+        }
+
+        try {
+            IOException lastError = null;
+            for (int attempt = 0; attempt < START_ATTEMPTS; attempt++) {
+                int port = allocatePort();
+                int index = nextIndex(name);
+                // La primera réplica comparte el cortocircuito con el backend del modelo
+                String breakerName = index == 1 ? name : name + "#" + index;
+                LlamaClient client = new LlamaClient(breakerName, modelsDir, binariesDir, port);
+                try {
+                    client.startServer(name, profile, START_TIMEOUT_MS);
+                } catch (FileNotFoundException | TimeoutException e) {
+                    stopClient(client);
+                    throw e;
+                } catch (IOException e) {
+                    stopClient(client);
+                    lastError = e;
+                    continue;
+                }
+
+                replicas.computeIfAbsent(name, key -> new CopyOnWriteArrayList<>())
+                        .add(new Replica(name, index, client, profile));
+                slotContexts.put(name, profile.contextSize / Math.max(1, profile.parallel));
+                PluginLogger.log(String.format("Servidor llama.cpp de %s (réplica %d) en el puerto %d, %d MB, %s",
+                        name, index, port, toMb(memory), profile.describe()), PluginLogger.Level.INFO);
+                return;
+            }
+            throw lastError;
+        } finally {
+            synchronized (this) {
+                pendingMemory -= memory;
+                pendingThreads -= threads;
+            }
+        }
+    }
+
+    /**
+     * Aparta memoria e hilos para un arranque, o falla si no caben en el presupuesto
+     * @param evict Si se pueden retirar réplicas inactivas de otros modelos, de la usada hace
+     *              más tiempo a la más reciente, hasta que quepa
+     * @return Réplicas retiradas que el llamante debe detener
+     */
+    private synchronized List<Replica> reserve(String name, long memory, int threads, boolean evict)
+            throws IOException {
+        if (shutDown) {
+            throw new IOException("Local server pool is shut down");
+        }
+
+        long usedMemory = getUsedMemory();
+        int usedThreads = pendingThreads;
+        for (List<Replica> list : replicas.values()) {
+            for (Replica replica : list) {
+                if (replica.isRunning()) {
+                    usedThreads += replica.profile.threads;
+                }
+            }
+        }
+
+        long memoryBudget = getMemoryBudget();
+        int threadBudget = getThreadBudget();
+        List<Replica> evicted = new ArrayList<>();
+        if (evict) {
+            List<Replica> candidates = idleReplicasOfOtherModels(name);
+            candidates.sort(Comparator.comparingLong((Replica r) -> r.lastUsedNanos));
+            for (Replica replica : candidates) {
+                if (usedMemory - freedMemory(evicted) + memory <= memoryBudget
+                        && usedThreads - freedThreads(evicted) + threads <= threadBudget) {
+                    break;
+                }
+                evicted.add(replica);
+            }
+            // Solo se descarga algo si con ello el modelo cabe
+            if (usedMemory - freedMemory(evicted) + memory > memoryBudget
+                    || usedThreads - freedThreads(evicted) + threads > threadBudget) {
+                evicted.clear();
+            }
+            usedMemory -= freedMemory(evicted);
+            usedThreads -= freedThreads(evicted);
+        }
+
+        if (usedMemory + memory > memoryBudget || usedThreads + threads > threadBudget) {
+            throw new IOException(String.format(
+                    "Not enough local server budget for %s: needs %d MB and %d threads, %d MB and %d threads free",
+                    name, toMb(memory), threads, toMb(Math.max(0, memoryBudget - usedMemory)),
+                    Math.max(0, threadBudget - usedThreads)));
+        }
+
+        for (Replica replica : evicted) {
+            replicas.get(replica.modelName).remove(replica);
+        }
+        pendingMemory += memory;
+        pendingThreads += threads;
+        return evicted;
+    }
+
+    /**
+     * Réplicas en marcha y sin generaciones en curso de los demás modelos. Las recién arrancadas
+     * que aún no han servido nada no cuentan: quien las cargó está a punto de pedirles una
+     * generación y, descargadas entre medias, fallaría con el modelo sin cargar.
+     */
+    private synchronized List<Replica> idleReplicasOfOtherModels(String name) {
+        List<Replica> idle = new ArrayList<>();
+        replicas.forEach((model, list) -> {
+            if (!model.equals(name)) {
+                list.stream()
+                        .filter(r -> r.isRunning() && r.getInFlight() == 0)
+                        .filter(r -> r.leased || r.getIdleMillis() >= FIRST_LEASE_GRACE_MS)
+                        .forEach(idle::add);
+            }
+        });
+        return idle;
+    }
+
+    /**
+     * Número de modelos con réplicas en marcha o arrancando, contando el indicado
+     */
+    private synchronized int residentModels(String name) {
+        Set<String> models = new HashSet<>(startingReplicas.keySet());
+        models.add(name);
+        replicas.forEach((model, list) -> {
+            if (list.stream().anyMatch(Replica::isRunning)) {
+                models.add(model);
+            }
+        });
+        return models.size();
+    }
+
+    /**
+     * Memoria que se liberaría descargando los modelos inactivos distintos del indicado
+     */
+    private long getIdleMemory(String name) {
+        return freedMemory(idleReplicasOfOtherModels(name));
+    }
+
+    private static long freedMemory(List<Replica> replicas) {
+        return replicas.stream().mapToLong(r -> r.profile.estimatedMemoryBytes).sum();
+    }
+
+    private static int freedThreads(List<Replica> replicas) {
+        return replicas.stream().mapToInt(r -> r.profile.threads).sum();
+    }
+
+    /**
+     * Memoria de las réplicas en marcha más la apartada para las que están arrancando
+     */
+    private synchronized long getUsedMemory() {
+        long used = pendingMemory;
+        for (List<Replica> list : replicas.values()) {
+            for (Replica replica : list) {
+                if (replica.isRunning()) {
+                    used += replica.profile.estimatedMemoryBytes;
+                }
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Réplicas vivas del modelo; las que han terminado se retiran y liberan su puerto
+     */
+    private List<Replica> liveReplicas(String modelName) {
+        List<Replica> list = replicas.get(modelName);
+        if (list == null) {
+            return List.of();
+        }
+
+        List<Replica> live = new ArrayList<>();
+        for (Replica replica : list) {
+            if (replica.isRunning()) {
+                live.add(replica);
+            } else if (list.remove(replica)) {
+                PluginLogger.log("El servidor llama.cpp de " + modelName + " (réplica " + replica.index
+                        + ") ha terminado", PluginLogger.Level.WARN);
+                reservedPorts.remove(replica.getPort());
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Número de réplica más bajo que no está en uso
+     */
+    private int nextIndex(String modelName) {
+        Set<Integer> used = new HashSet<>();
+        liveReplicas(modelName).forEach(replica -> used.add(replica.index));
+        int index = 1;
+        while (used.contains(index)) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Puerto libre en la interfaz local que no se haya dado ya a otra réplica
+     */
+    private int allocatePort() throws IOException {
+        while (true) {
+            try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                int port = socket.getLocalPort();
+                if (reservedPorts.add(port)) {
+                    return port;
+                }
+            }
+        }
+    }
+
+    /**
+     * Guarda la caché de las conversaciones fijadas a la réplica y la detiene. Los archivos
+     * llevan la clave de la conversación, así que cualquier réplica puede restaurarlos.
+     */
+    private void stopReplica(Replica replica) {
+        List<Slot> pinned = new ArrayList<>();
+        synchronized (this) {
+            for (Slot slot : replica.slots) {
+                if (slot.key != null && !slot.busy) {
+                    pinned.add(slot);
+                }
+            }
+        }
+
+        if (replica.isRunning() && replica.profile.slotSavePath != null) {
+            for (Slot slot : pinned) {
+                try {
+                    replica.client.saveSlot(slot.id, slot.key + SLOT_FILE_EXTENSION);
+                } catch (IOException e) {
+                    PluginLogger.log("No se pudo guardar la caché del slot " + slot.id + " de "
+                            + replica.modelName + ": " + e.getMessage(), PluginLogger.Level.DEBUG);
+                }
+            }
+            pruneSlotFiles(replica.modelName);
+        }
+        stopClient(replica.client);
+    }
+
+    /**
+     * Directorio de cachés de slot del modelo, o null si no se puede crear (se arranca sin guardarlas)
+     */
+    private String prepareSlotDirectory(String modelName) {
+        Path directory = slotsDir.resolve(modelName);
+        try {
+            Files.createDirectories(directory);
+            return directory.toAbsolutePath().toString();
+        } catch (IOException e) {
+            PluginLogger.log("No se pudo crear " + directory + ": " + e.getMessage(), PluginLogger.Level.WARN);
+            return null;
+        }
+    }
+
+    private Path slotFile(String modelName, String cacheKey) {
+        return slotsDir.resolve(modelName).resolve(cacheKey + SLOT_FILE_EXTENSION);
+    }
+
+    /**
+     * Conserva solo las cachés guardadas más recientes del modelo
+     */
+    private void pruneSlotFiles(String modelName) {
+        try (Stream<Path> files = Files.list(slotsDir.resolve(modelName))) {
+            List<Path> saved = files.filter(file -> file.toString().endsWith(SLOT_FILE_EXTENSION))
+                    .sorted(Comparator.comparingLong(LlamaServerPool::lastModified).reversed())
+                    .toList();
+            for (Path file : saved.subList(Math.min(saved.size(), MAX_SAVED_SLOTS), saved.size())) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            PluginLogger.log("No se pudieron limpiar las cachés de " + modelName + ": " + e.getMessage(),
+                    PluginLogger.Level.DEBUG);
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void stopClient(LlamaClient client) {
+        try {
+            client.stopServer();
+        } catch (IOException e) {
+            System.err.println("Error deteniendo servidor de modelo: " + e.getMessage());
+        } finally {
+            reservedPorts.remove(client.getPort());
+        }
+    }
+
+    private long getMemoryBudget() {
+        int configured = memoryBudgetMb.getAsInt();
+        if (configured > 0) {
+            return configured * 1024L * 1024L;
+        }
+        return HardwareInfo.detect().totalMemoryBytes * DEFAULT_MEMORY_PERCENT / 100;
+    }
+
+    /**
+     * Hilos configurados o, por defecto, uno por núcleo físico
+     */
+    private int getThreadBudget() {
+        int configured = cpuThreads.getAsInt();
+        return configured > 0 ? configured : HardwareInfo.detect().physicalCores;
+    }
+
+    private static long toMb(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+}
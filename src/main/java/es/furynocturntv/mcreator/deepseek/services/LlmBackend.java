@@ -0,0 +1,37 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Backend de generación (API de DeepSeek, servidor llama.cpp, pasarela compatible con OpenAI...).
+ * DeepSeekClient se ocupa de caché, colas, reintentos y costos; el backend solo envía la
+ * solicitud y devuelve el texto con el consumo de tokens que informe el servidor.
+ */
+public interface LlmBackend {
+
+    /**
+     * Nombre del backend; identifica su cubeta del limitador y su cortocircuito
+     */
+    String getName();
+
+    /**
+     * Genera una respuesta sin bloquear el hilo llamante
+     * @param request Mensajes y parámetros de generación
+     * @param listener Si no es null se pide la respuesta en streaming y se le entrega cada fragmento
+     * @return Future con la respuesta completa; cancelarlo aborta la llamada en curso
+     */
+    CompletableFuture<LlmResult> generate(LlmRequest request, StreamListener listener);
+
+    /**
+     * Indica si el backend aceptaría ahora una solicitud (p. ej. su cortocircuito no está abierto)
+     */
+    default boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Prepara la conexión para que la primera solicitud sea rápida
+     */
+    default void warmUp() {
+    }
+}
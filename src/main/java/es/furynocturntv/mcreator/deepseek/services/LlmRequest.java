@@ -0,0 +1,27 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import es.furynocturntv.mcreator.deepseek.models.OutputGrammar;
+
+import java.util.List;
+
+/**
+ * Solicitud de generación independiente del backend
+ */
+public class LlmRequest {
+    public final List<ChatMessage> messages;
+    public final String model;
+    public int maxTokens = 4096;
+    public double temperature = 0.7;
+    public double topP = 0.9;
+    // Formato obligatorio de la respuesta, o null para texto libre. Los modelos locales lo
+    // imponen con una gramática; la API solo puede pedir modo JSON.
+    public OutputGrammar grammar;
+    // Conversación a la que pertenece, estable entre turnos; los backends locales la usan para
+    // volver al slot que guarda su caché. null si no continúa ninguna.
+    public String conversationId;
+
+    public LlmRequest(List<ChatMessage> messages, String model) {
+        this.messages = messages;
+        this.model = model;
+    }
+}
@@ -0,0 +1,25 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+/**
+ * Respuesta de un backend con el consumo de tokens que haya informado.
+ * Los contadores que el servidor no devuelve quedan a -1.
+ */
+public class LlmResult {
+    public final String text;
+    public int promptTokens = -1;
+    public int completionTokens = -1;
+    // Tokens de prompt servidos desde la caché de contexto del servidor
+    public int cacheHitTokens = -1;
+    public int cacheMissTokens = -1;
+
+    public LlmResult(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @return true si el servidor informó los tokens de prompt y de respuesta
+     */
+    public boolean hasUsage() {
+        return promptTokens >= 0 && completionTokens >= 0;
+    }
+}
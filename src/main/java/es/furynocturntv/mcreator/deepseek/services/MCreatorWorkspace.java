@@ -1,6 +1,11 @@
 package es.furynocturntv.mcreator.deepseek.services;
 
 import net.mcreator.workspace.Workspace;
+import net.mcreator.workspace.elements.ModElement;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 
 public class MCreatorWorkspace {
     private final Workspace workspace;
@@ -12,4 +17,22 @@ public class MCreatorWorkspace {
     public Workspace getWorkspace() {
         return workspace;
     }
+
+    /**
+     * Resumen del workspace para el prefijo de los prompts. Se ordena para que el texto
+     * sea idéntico mientras el workspace no cambie.
+     */
+    public String describe() {
+        Map<String, String> elementsByType = new TreeMap<>(workspace.getModElements().stream()
+                .collect(Collectors.groupingBy(element -> element.getType().getReadableName(),
+                        Collectors.mapping(ModElement::getName,
+                                Collectors.collectingAndThen(Collectors.toList(),
+                                        names -> names.stream().sorted().collect(Collectors.joining(", ")))))));
+
+        StringBuilder summary = new StringBuilder()
+                .append("Mod: ").append(workspace.getWorkspaceSettings().getModName()).append("\n")
+                .append("Generador: ").append(workspace.getGeneratorConfiguration().getGeneratorName()).append("\n");
+        elementsByType.forEach((type, names) -> summary.append(type).append(": ").append(names).append("\n"));
+        return summary.toString();
+    }
 }
\ No newline at end of file
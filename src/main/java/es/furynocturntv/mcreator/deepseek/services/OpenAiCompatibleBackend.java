@@ -0,0 +1,198 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import es.furynocturntv.mcreator.deepseek.api.ApiException;
+import es.furynocturntv.mcreator.deepseek.api.CircuitOpenException;
+import es.furynocturntv.mcreator.deepseek.utils.CircuitBreaker;
+import es.furynocturntv.mcreator.deepseek.utils.CircuitBreakerRegistry;
+import es.furynocturntv.mcreator.deepseek.utils.RateLimiter;
+import es.furynocturntv.mcreator.deepseek.utils.RetryPolicy;
+import okhttp3.*;
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Backend para cualquier servidor con la API de chat de OpenAI (/chat/completions):
+ * pasarelas de inferencia internas, vLLM, el modo OpenAI de llama.cpp o MockLlmServer.
+ *
+ * Cada backend tiene su propio cortocircuito y, si recibe un limitador, le comunica las
+ * cabeceras de límite de tasa y las pausas por 429 con su nombre como clave.
+ */
+public class OpenAiCompatibleBackend implements LlmBackend {
+    private final String name;
+    private final String baseUrl;
+    private final Supplier<String> apiKey;
+    private final OkHttpClient httpClient;
+    private final RateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+
+    /**
+     * @param name Nombre del backend (clave del limitador y del cortocircuito)
+     * @param baseUrl URL base de la API, p. ej. "http://127.0.0.1:9000/v1"
+     * @param apiKey Proveedor de la API key, o null si el servidor no la pide
+     * @param httpClient Cliente HTTP compartido
+     * @param rateLimiter Limitador al que informar de los límites del servidor, o null
+     */
+    public OpenAiCompatibleBackend(String name, String baseUrl, Supplier<String> apiKey, OkHttpClient httpClient,
+                                   RateLimiter rateLimiter) {
+        this.name = name;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.apiKey = apiKey;
+        this.httpClient = httpClient;
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = CircuitBreakerRegistry.getInstance().api(name);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return circuitBreaker.isCallPermitted();
+    }
+
+    @Override
+    public void warmUp() {
+        HttpRuntime.getInstance().warmUp(baseUrl);
+    }
+
+    /**
+     * Encola la solicitud en el dispatcher de OkHttp sin ocupar hilos en espera
+     */
+    @Override
+    public CompletableFuture<LlmResult> generate(LlmRequest llmRequest, StreamListener listener) {
+        // El cuerpo se serializa directamente en la conexión al enviarse
+        Request.Builder builder = new Request.Builder()
+                .url(baseUrl + "/chat/completions")
+                .post(ChatCodec.requestBody(llmRequest, listener != null))
+                .addHeader("Accept", listener != null ? "text/event-stream" : "application/json");
+        String key = apiKey != null ? apiKey.get() : null;
+        if (key != null && !key.isEmpty()) {
+            builder.addHeader("Authorization", "Bearer " + key);
+        }
+
+        // Con el backend caído se falla al instante en lugar de agotar los timeouts de conexión y lectura
+        CircuitBreaker.Permit permit = circuitBreaker.tryAcquire();
+        if (permit == null) {
+            return CompletableFuture.failedFuture(
+                    new CircuitOpenException(circuitBreaker.getName(), circuitBreaker.getRemainingOpenMillis()));
+        }
+
+        Call call = httpClient.newCall(builder.build());
+        CompletableFuture<LlmResult> future = new CompletableFuture<>();
+        long start = System.nanoTime();
+
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                // Una cancelación no dice nada de la salud del backend
+                if (call.isCanceled()) {
+                    permit.release();
+                } else {
+                    permit.onFailure();
+                }
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    // La salud se mide hasta las cabeceras: 5xx y 429 son fallos, otros 4xx no
+                    if (response.code() >= 500 || response.code() == 429) {
+                        permit.onFailure();
+                    } else {
+                        permit.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    }
+
+                    // Adaptar la cubeta a lo que anuncia el servidor
+                    if (rateLimiter != null) {
+                        rateLimiter.updateFromHeaders(name, response.headers());
+                    }
+
+                    long retryAfter = RetryPolicy.parseRetryAfter(response.header("Retry-After"));
+                    if (response.code() == 429) { // Too Many Requests
+                        if (rateLimiter != null) {
+                            rateLimiter.pause(name, retryAfter >= 0 ? retryAfter : 1000);
+                        }
+                        throw new ApiException(429, "API rate limit exceeded", retryAfter);
+                    }
+                    if (!response.isSuccessful()) {
+                        throw new ApiException(response.code(),
+                                "API request failed: " + response.code() + " - " + response.body().string(),
+                                retryAfter);
+                    }
+
+                    future.complete(listener != null ? readEventStream(response, listener) : readResponse(response));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+
+        // Cancelar el future aborta la llamada HTTP subyacente
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Lee la respuesta completa directamente del stream de la conexión
+     */
+    private LlmResult readResponse(Response response) throws IOException {
+        ChatCodec.Chunk chunk = ChatCodec.readResponse(response.body().byteStream());
+        return ChatCodec.toResult(chunk.content, chunk.usage);
+    }
+
+    /**
+     * Procesa los eventos SSE de una respuesta con stream=true según llegan
+     * @param listener Receptor al que se entrega cada fragmento
+     * @return La respuesta completa una vez recibido [DONE]
+     */
+    private LlmResult readEventStream(Response response, StreamListener listener) throws IOException {
+        StringBuilder fullResponse = new StringBuilder();
+        ChatCodec.Usage usage = null;
+        BufferedSource source = response.body().source();
+
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            // Ignorar comentarios keep-alive y líneas vacías entre eventos
+            if (!line.startsWith("data:")) {
+                continue;
+            }
+
+            String data = line.substring(5).trim();
+            if ("[DONE]".equals(data)) {
+                break;
+            }
+            if (data.isEmpty()) {
+                continue;
+            }
+
+            ChatCodec.Chunk chunk = ChatCodec.readStreamChunk(data);
+            if (!chunk.content.isEmpty()) {
+                fullResponse.append(chunk.content);
+                listener.onDelta(chunk.content);
+            }
+
+            // El último fragmento trae el bloque usage con el consumo real
+            if (chunk.usage != null) {
+                usage = chunk.usage;
+            }
+        }
+
+        return ChatCodec.toResult(fullResponse.toString(), usage);
+    }
+}
@@ -0,0 +1,63 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordena el contenido de cada solicitud de más estable a más variable para aprovechar
+ * la caché de contexto de DeepSeek, que factura más barato y responde antes cuando
+ * varias solicitudes comparten un prefijo idéntico byte a byte.
+ *
+ * El prefijo es un único mensaje system con: instrucciones, contexto de MCreator y
+ * resumen del workspace. Nada que cambie por solicitud (fechas, ids, costos) debe ir aquí.
+ */
+public class PromptAssembler {
+    private static final String SYSTEM_INSTRUCTIONS =
+            "Eres un asistente de programación integrado en MCreator. Responde en el idioma del usuario, "
+                    + "de forma concisa, y pon el código en bloques ``` con el lenguaje indicado.";
+
+    private static final String MCREATOR_CONTEXT =
+            "Contexto de MCreator: los mods se componen de elementos (bloques, ítems, entidades, "
+                    + "procedimientos, GUIs...) que MCreator genera como código Java para Forge o Fabric. "
+                    + "Los procedimientos se editan con bloques Blockly; el código personalizado va en "
+                    + "elementos Custom y no debe modificar el código generado automáticamente.";
+
+    private volatile String workspaceSummary = "";
+    private volatile String cachedPrefix = buildPrefix("");
+
+    /**
+     * Actualiza el resumen del workspace. Solo debe llamarse cuando el workspace cambia,
+     * ya que cada cambio invalida el prefijo cacheado por la API.
+     */
+    public void setWorkspaceSummary(String summary) {
+        String normalized = summary == null ? "" : summary.strip();
+        if (!normalized.equals(workspaceSummary)) {
+            workspaceSummary = normalized;
+            cachedPrefix = buildPrefix(normalized);
+        }
+    }
+
+    public String getStablePrefix() {
+        return cachedPrefix;
+    }
+
+    /**
+     * Antepone el prefijo estable a los mensajes de una solicitud
+     */
+    public List<ChatMessage> assemble(List<ChatMessage> messages) {
+        List<ChatMessage> assembled = new ArrayList<>(messages.size() + 1);
+        assembled.add(ChatMessage.system(cachedPrefix));
+        assembled.addAll(messages);
+        return assembled;
+    }
+
+    private static String buildPrefix(String workspaceSummary) {
+        StringBuilder prefix = new StringBuilder(SYSTEM_INSTRUCTIONS)
+                .append("\n\n")
+                .append(MCREATOR_CONTEXT);
+        if (!workspaceSummary.isEmpty()) {
+            prefix.append("\n\nWorkspace actual:\n").append(workspaceSummary);
+        }
+        return prefix.toString();
+    }
+}
@@ -0,0 +1,49 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Acumula los tokens de prompt servidos desde la caché de contexto de la API
+ * (prompt_cache_hit_tokens / prompt_cache_miss_tokens) y el ahorro que suponen
+ */
+public class PromptCacheStats {
+    private final AtomicLong hitTokens = new AtomicLong();
+    private final AtomicLong missTokens = new AtomicLong();
+    private final DoubleAdder savings = new DoubleAdder();
+
+    void record(long hit, long miss, double saved) {
+        hitTokens.addAndGet(hit);
+        missTokens.addAndGet(miss);
+        savings.add(saved);
+    }
+
+    public long getHitTokens() {
+        return hitTokens.get();
+    }
+
+    public long getMissTokens() {
+        return missTokens.get();
+    }
+
+    /**
+     * Fracción de tokens de prompt servidos desde caché (0-1)
+     */
+    public double getHitRatio() {
+        long total = hitTokens.get() + missTokens.get();
+        return total == 0 ? 0 : (double) hitTokens.get() / total;
+    }
+
+    /**
+     * Dinero ahorrado frente a pagar todos los tokens de prompt a precio normal
+     */
+    public double getSavings() {
+        return savings.sum();
+    }
+
+    public void reset() {
+        hitTokens.set(0);
+        missTokens.set(0);
+        savings.reset();
+    }
+}
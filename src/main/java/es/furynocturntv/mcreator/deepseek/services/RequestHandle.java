@@ -0,0 +1,61 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Manejador de una solicitud concreta en curso.
+ * Cancelarlo aborta solo su propia llamada HTTP (o su generación local),
+ * sin afectar al resto de solicitudes que estén en marcha.
+ */
+public class RequestHandle {
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    private final long id;
+    private final String modelName;
+    private final long startedAt;
+    private final CompletableFuture<String> future;
+
+    RequestHandle(String modelName, CompletableFuture<String> future) {
+        this.id = NEXT_ID.getAndIncrement();
+        this.modelName = modelName;
+        this.startedAt = System.currentTimeMillis();
+        this.future = future;
+    }
+
+    /**
+     * Cancela esta solicitud. La llamada OkHttp asociada se aborta y, en modelos locales,
+     * se cierra la conexión con llama.cpp para que deje de generar.
+     * @return true si la solicitud seguía en curso
+     */
+    public boolean cancel() {
+        return future.cancel(true);
+    }
+
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * Future con la respuesta completa, para encadenar o esperar el resultado
+     */
+    public CompletableFuture<String> getFuture() {
+        return future;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    public long getElapsedMillis() {
+        return System.currentTimeMillis() - startedAt;
+    }
+}
@@ -0,0 +1,21 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+/**
+ * Receptor de fragmentos de una respuesta generada en streaming.
+ * Los métodos se invocan desde el hilo de red, nunca desde el EDT.
+ */
+public interface StreamListener {
+
+    /**
+     * Se invoca por cada fragmento de texto recibido del modelo
+     * @param delta Texto nuevo generado desde el fragmento anterior
+     */
+    void onDelta(String delta);
+
+    /**
+     * Se invoca una vez terminada la generación
+     * @param fullResponse Respuesta completa ya concatenada
+     */
+    default void onComplete(String fullResponse) {
+    }
+}
@@ -0,0 +1,160 @@
+package es.furynocturntv.mcreator.deepseek.services;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingResult;
+import com.knuddels.jtokkit.api.EncodingType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Cuenta tokens con jtokkit para validar prompts contra la ventana de contexto del modelo.
+ *
+ * jtokkit no incluye el vocabulario BPE propio de DeepSeek; se usa cl100k_base, cuyo
+ * tamaño de vocabulario y reglas de pre-tokenización son los más parecidos. El costo
+ * real siempre se calcula con el bloque usage que devuelve la API, no con este conteo.
+ */
+public class TokenizerService {
+    // Tokens que añade la plantilla de chat por cada mensaje (rol y separadores)
+    private static final int TOKENS_PER_MESSAGE = 4;
+    // Ventana de un modelo local que aún no se ha cargado: el contexto mínimo por slot del planificador
+    private static final int DEFAULT_LOCAL_WINDOW = 2048;
+
+    private static final Map<String, Integer> CONTEXT_WINDOWS = Map.of(
+            "deepseek-chat", 65536,
+            "deepseek-coder", 65536,
+            "deepseek-reasoner", 65536,
+            "deepseek-math", 4096
+    );
+
+    private final EncodingRegistry registry = Encodings.newLazyEncodingRegistry();
+    private final Map<String, Encoding> encodings = new ConcurrentHashMap<>();
+    private ToIntFunction<String> localWindows = name -> 0;
+
+    /**
+     * Fija de dónde sale la ventana de los modelos locales (el contexto de un slot de su
+     * servidor llama.cpp, o 0 si se desconoce)
+     */
+    public void setLocalWindows(ToIntFunction<String> localWindows) {
+        this.localWindows = localWindows;
+    }
+
+    /**
+     * Obtiene (y cachea) el codificador del modelo
+     */
+    private Encoding encodingFor(String modelName) {
+        return encodings.computeIfAbsent(modelName, name -> registry.getEncoding(EncodingType.CL100K_BASE));
+    }
+
+    public int countTokens(String modelName, String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return encodingFor(modelName).countTokens(text);
+    }
+
+    /**
+     * Tokens que ocupa un mensaje de chat, incluida la sobrecarga de la plantilla
+     */
+    public int countMessageTokens(String modelName, String content) {
+        return countTokens(modelName, content) + TOKENS_PER_MESSAGE;
+    }
+
+    /**
+     * Ventana de contexto total (entrada + salida) del modelo
+     */
+    public int getContextWindow(String modelName) {
+        Integer window = CONTEXT_WINDOWS.get(modelName);
+        if (window != null) {
+            return window;
+        }
+        int local = localWindows.applyAsInt(modelName);
+        return local > 0 ? local : DEFAULT_LOCAL_WINDOW;
+    }
+
+    /**
+     * Tokens que se reservan para la respuesta: los pedidos, pero nunca más de media ventana
+     * (con 4096 tokens de salida un modelo de 4096 de ventana no dejaría sitio al prompt).
+     * Es también el max_tokens que debe enviarse.
+     */
+    public int getOutputReserve(String modelName, int maxOutputTokens) {
+        return Math.min(maxOutputTokens, getContextWindow(modelName) / 2);
+    }
+
+    /**
+     * Tokens disponibles para el prompt tras reservar la salida
+     */
+    public int getPromptBudget(String modelName, int maxOutputTokens) {
+        return getContextWindow(modelName) - getOutputReserve(modelName, maxOutputTokens) - TOKENS_PER_MESSAGE;
+    }
+
+    /**
+     * Ajusta el prompt a la ventana del modelo
+     * @param modelName Modelo destino
+     * @param prompt Texto de entrada
+     * @param maxOutputTokens Tokens pedidos para la respuesta (ver {@link #getOutputReserve})
+     * @param trim Si es true se descarta el principio del prompt; si es false se rechaza
+     * @return El prompt original o recortado
+     * @throws IllegalArgumentException Si no cabe y no se permite recortar
+     */
+    public String fitPrompt(String modelName, String prompt, int maxOutputTokens, boolean trim) {
+        return fitText(modelName, prompt, getPromptBudget(modelName, maxOutputTokens), trim);
+    }
+
+    /**
+     * Ajusta una conversación a la ventana del modelo. Solo se recorta el último mensaje;
+     * el historial ya llega acotado por ContextWindowManager.
+     * @throws IllegalArgumentException Si no cabe y no se permite recortar
+     */
+    public List<ChatMessage> fitMessages(String modelName, List<ChatMessage> messages, int maxOutputTokens,
+                                         boolean trim) {
+        int budget = getContextWindow(modelName) - getOutputReserve(modelName, maxOutputTokens);
+        int total = 0;
+        for (ChatMessage message : messages) {
+            total += countMessageTokens(modelName, message.content);
+        }
+        if (total <= budget) {
+            return messages;
+        }
+
+        ChatMessage last = messages.get(messages.size() - 1);
+        int lastBudget = budget - (total - countMessageTokens(modelName, last.content)) - TOKENS_PER_MESSAGE;
+        if (!trim || lastBudget <= 0) {
+            throw new IllegalArgumentException(
+                    "Prompt too long: " + total + " tokens. Max for " + modelName + ": " + budget + " tokens");
+        }
+
+        List<ChatMessage> fitted = new ArrayList<>(messages.subList(0, messages.size() - 1));
+        fitted.add(new ChatMessage(last.role, fitText(modelName, last.content, lastBudget, true)));
+        return fitted;
+    }
+
+    /**
+     * Corta el texto a un máximo de tokens conservando el principio
+     */
+    public String truncate(String modelName, String text, int maxTokens) {
+        EncodingResult result = encodingFor(modelName).encode(text, maxTokens);
+        return result.isTruncated() ? encodingFor(modelName).decode(result.getTokens()) : text;
+    }
+
+    private String fitText(String modelName, String text, int budget, boolean trim) {
+        Encoding encoding = encodingFor(modelName);
+        List<Integer> tokens = encoding.encode(text);
+
+        if (tokens.size() <= budget) {
+            return text;
+        }
+        if (!trim) {
+            throw new IllegalArgumentException(
+                    "Prompt too long: " + tokens.size() + " tokens. Max for " + modelName + ": " + budget + " tokens");
+        }
+
+        // La pregunta suele estar al final: conservar los últimos tokens
+        return encoding.decode(tokens.subList(tokens.size() - budget, tokens.size()));
+    }
+}
@@ -0,0 +1,149 @@
+package es.furynocturntv.mcreator.deepseek.utils;
+
+import es.furynocturntv.mcreator.deepseek.api.ApiKeyManager;
+import es.furynocturntv.mcreator.deepseek.services.BatchResult;
+import es.furynocturntv.mcreator.deepseek.services.DeepSeekClient;
+import es.furynocturntv.mcreator.deepseek.services.HttpRuntime;
+import es.furynocturntv.mcreator.deepseek.services.OpenAiCompatibleBackend;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ejecuta un lote de prompts sin interfaz gráfica (p. ej. trabajos nocturnos).
+ *
+ * Uso: BatchRunner entrada.jsonl salida.jsonl [--model deepseek-chat] [--concurrency 4] [--base-url url]
+ *
+ * Cada línea de entrada es {"id": "...", "prompt": "..."}; "id" es opcional.
+ * Cada línea de salida se escribe en cuanto termina su prompt:
+ * {"id", "index", "response" o "error", "cached", "elapsed_ms"}.
+ * Usa la API key y la configuración guardadas por el plugin. Con --base-url las solicitudes van
+ * a esa API compatible con OpenAI (p. ej. un MockLlmServer para medir el recorrido sin red).
+ */
+public class BatchRunner {
+    private static final int DEFAULT_CONCURRENCY = 4;
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: BatchRunner <input.jsonl> <output.jsonl> [--model name] [--concurrency n]"
+                    + " [--base-url url]");
+            System.exit(64);
+        }
+
+        Path input = Paths.get(args[0]);
+        Path output = Paths.get(args[1]);
+        String model = null;
+        int concurrency = DEFAULT_CONCURRENCY;
+        String baseUrl = null;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--model" -> model = args[i + 1];
+                case "--concurrency" -> concurrency = Integer.parseInt(args[i + 1]);
+                case "--base-url" -> baseUrl = args[i + 1];
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(64);
+                }
+            }
+        }
+
+        int exitCode;
+        try {
+            exitCode = run(input, output, model, concurrency, baseUrl);
+        } catch (Exception e) {
+            System.err.println("Batch failed: " + e.getMessage());
+            exitCode = 1;
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * @param baseUrl API compatible con OpenAI a usar en lugar de la configurada, o null
+     * @return 0 si todos los prompts terminaron bien, 2 si alguno falló
+     */
+    static int run(Path input, Path output, String model, int concurrency, String baseUrl) throws Exception {
+        List<String> ids = new ArrayList<>();
+        List<String> prompts = new ArrayList<>();
+        readPrompts(input, ids, prompts);
+
+        ApiKeyManager apiKeyManager = new ApiKeyManager();
+        if (baseUrl == null && !apiKeyManager.hasApiKey()) {
+            throw new IllegalStateException("No API key configured");
+        }
+
+        SettingsManager settingsManager = new SettingsManager(null);
+        String modelName = model != null ? model : settingsManager.getSelectedModel();
+        DeepSeekClient client = new DeepSeekClient(apiKeyManager, settingsManager, false, baseUrl == null ? null
+                : rateLimiter -> new OpenAiCompatibleBackend(CircuitBreakerRegistry.ONLINE, baseUrl, apiKeyManager::getApiKey,
+                        HttpRuntime.getInstance().getApiClient(), rateLimiter));
+
+        long start = System.nanoTime();
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            List<BatchResult> results = client.sendBatchAsync(prompts, modelName, concurrency,
+                    result -> writeResult(writer, ids.get(result.index), result)).get();
+
+            long failed = results.stream().filter(result -> !result.isSuccess()).count();
+            long cached = results.stream().filter(result -> result.fromCache).count();
+            System.err.printf("%d prompts (%d en caché, %d con error) en %d s, costo $%.4f%n",
+                    results.size(), cached, failed,
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+                    client.getCurrentSessionCost());
+            return failed == 0 ? 0 : 2;
+        } finally {
+            client.shutdown();
+            HttpRuntime.getInstance().shutdown();
+            TaskExecutor.getInstance().shutdown();
+        }
+    }
+
+    private static void readPrompts(Path input, List<String> ids, List<String> prompts) throws IOException {
+        List<String> lines = Files.readAllLines(input, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                JSONObject entry = new JSONObject(line);
+                ids.add(entry.optString("id", String.valueOf(prompts.size())));
+                prompts.add(entry.getString("prompt"));
+            } catch (JSONException e) {
+                throw new IllegalArgumentException("Invalid JSONL at line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Escribe un resultado en cuanto llega; se invoca desde los hilos de red
+     */
+    private static synchronized void writeResult(BufferedWriter writer, String id, BatchResult result) {
+        JSONObject line = new JSONObject()
+                .put("id", id)
+                .put("index", result.index)
+                .put("cached", result.fromCache)
+                .put("elapsed_ms", result.elapsedMillis);
+        if (result.isSuccess()) {
+            line.put("response", result.response);
+        } else {
+            line.put("error", result.error);
+        }
+
+        try {
+            writer.write(line.toString());
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
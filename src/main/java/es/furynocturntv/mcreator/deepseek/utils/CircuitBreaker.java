@@ -0,0 +1,262 @@
+package es.furynocturntv.mcreator.deepseek.utils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Cortocircuito de un backend (API online o un servidor llama.cpp).
+ *
+ * Guarda el resultado de las últimas llamadas en una ventana circular. Cuando la tasa de
+ * errores o de llamadas lentas supera su umbral el circuito se abre y las solicitudes fallan
+ * al instante en lugar de esperar los timeouts de conexión y lectura. Pasado el tiempo de
+ * apertura se deja pasar una única llamada de prueba (semiabierto): si va bien se cierra,
+ * si falla se vuelve a abrir con el doble de espera, hasta un máximo.
+ *
+ * Cada permiso recuerda la generación del estado en que se concedió, de modo que el
+ * resultado de una llamada anterior a la apertura no decide la prueba ni cuenta en una
+ * ventana posterior.
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final byte OK = 0;
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final String name;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowRateThreshold;
+    private final long slowCallMillis;
+    private final long baseOpenMillis;
+    private final long maxOpenMillis;
+    private final List<Consumer<CircuitBreaker>> listeners = new CopyOnWriteArrayList<>();
+
+    private final byte[] outcomes;
+    private int count = 0;
+    private int next = 0;
+
+    private State state = State.CLOSED;
+    private long openUntil = 0;
+    private long openMillis;
+    private boolean probeInFlight = false;
+    // Aumenta en cada cambio de estado
+    private long generation = 0;
+
+    /**
+     * @param name Nombre del backend que se muestra en la interfaz
+     * @param windowSize Número de llamadas recientes que se evalúan
+     * @param minimumCalls Llamadas necesarias en la ventana antes de poder abrir el circuito
+     * @param failureRateThreshold Fracción de errores (0-1) que abre el circuito
+     * @param slowCallMillis Latencia a partir de la que una llamada cuenta como lenta
+     * @param slowRateThreshold Fracción de llamadas lentas (0-1) que abre el circuito
+     * @param baseOpenMillis Tiempo de apertura inicial
+     * @param maxOpenMillis Tiempo de apertura máximo tras sucesivas pruebas fallidas
+     */
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold,
+                          long slowCallMillis, double slowRateThreshold, long baseOpenMillis, long maxOpenMillis) {
+        this.name = name;
+        this.outcomes = new byte[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallMillis = slowCallMillis;
+        this.slowRateThreshold = slowRateThreshold;
+        this.baseOpenMillis = baseOpenMillis;
+        this.maxOpenMillis = maxOpenMillis;
+        this.openMillis = baseOpenMillis;
+    }
+
+    /**
+     * Pide permiso para una llamada. Con el circuito abierto y su tiempo cumplido,
+     * la llamada que lo obtiene es la prueba del estado semiabierto.
+     * @return Permiso con el que informar del resultado, o null si la llamada debe fallar sin intentarse
+     */
+    public Permit tryAcquire() {
+        Permit permit;
+        boolean changed;
+        synchronized (this) {
+            switch (state) {
+                case CLOSED:
+                    return new Permit(generation, false);
+                case OPEN:
+                    if (System.currentTimeMillis() < openUntil) {
+                        return null;
+                    }
+                    state = State.HALF_OPEN;
+                    generation++;
+                    probeInFlight = true;
+                    permit = new Permit(generation, true);
+                    changed = true;
+                    break;
+                default:
+                    if (probeInFlight) {
+                        return null;
+                    }
+                    probeInFlight = true;
+                    permit = new Permit(generation, true);
+                    changed = false;
+            }
+        }
+        if (changed) {
+            notifyListeners();
+        }
+        return permit;
+    }
+
+    /**
+     * Indica, sin consumir la prueba, si ahora mismo se concedería una llamada
+     */
+    public synchronized boolean isCallPermitted() {
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> System.currentTimeMillis() >= openUntil;
+            case HALF_OPEN -> !probeInFlight;
+        };
+    }
+
+    /**
+     * Permiso de una llamada concedida. Solo el primer resultado que se informa cuenta.
+     */
+    public final class Permit {
+        private final long generation;
+        private final boolean probe;
+        private boolean resolved = false;
+
+        private Permit(long generation, boolean probe) {
+            this.generation = generation;
+            this.probe = probe;
+        }
+
+        /**
+         * La llamada fue bien; cuenta como lenta si superó el umbral de latencia
+         */
+        public void onSuccess(long latencyMillis) {
+            record(this, latencyMillis >= slowCallMillis ? SLOW : OK);
+        }
+
+        /**
+         * La llamada fue bien y su duración no dice nada de la salud del backend
+         */
+        public void onSuccess() {
+            record(this, OK);
+        }
+
+        public void onFailure() {
+            record(this, FAILED);
+        }
+
+        /**
+         * Devuelve el permiso de una llamada cancelada antes de saber si el backend estaba sano
+         */
+        public void release() {
+            synchronized (CircuitBreaker.this) {
+                if (resolved) {
+                    return;
+                }
+                resolved = true;
+                if (probe && generation == CircuitBreaker.this.generation && state == State.HALF_OPEN) {
+                    probeInFlight = false;
+                }
+            }
+        }
+    }
+
+    private void record(Permit permit, byte outcome) {
+        State before;
+        State after;
+        synchronized (this) {
+            if (permit.resolved) {
+                return;
+            }
+            permit.resolved = true;
+            // Los resultados de otra generación (llamadas anteriores a una apertura o a la prueba) no cuentan
+            if (permit.generation != generation) {
+                return;
+            }
+            before = state;
+            if (state == State.HALF_OPEN) {
+                if (!permit.probe) {
+                    return;
+                }
+                probeInFlight = false;
+                if (outcome == OK) {
+                    close();
+                } else {
+                    open(Math.min(openMillis * 2, maxOpenMillis));
+                }
+            } else if (state == State.CLOSED) {
+                outcomes[next] = outcome;
+                next = (next + 1) % outcomes.length;
+                count = Math.min(count + 1, outcomes.length);
+                if (count >= minimumCalls
+                        && (rateOf(FAILED) >= failureRateThreshold || rateOf(SLOW) >= slowRateThreshold)) {
+                    open(baseOpenMillis);
+                }
+            }
+            after = state;
+        }
+        if (before != after) {
+            PluginLogger.log("Circuito " + name + ": " + before + " -> " + after,
+                    after == State.OPEN ? PluginLogger.Level.WARN : PluginLogger.Level.INFO);
+            notifyListeners();
+        }
+    }
+
+    private void open(long millis) {
+        state = State.OPEN;
+        generation++;
+        openMillis = millis;
+        openUntil = System.currentTimeMillis() + millis;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        generation++;
+        openMillis = baseOpenMillis;
+        count = 0;
+        next = 0;
+    }
+
+    private double rateOf(byte outcome) {
+        int matches = 0;
+        for (int i = 0; i < count; i++) {
+            if (outcomes[i] == outcome) {
+                matches++;
+            }
+        }
+        return (double) matches / count;
+    }
+
+    private void notifyListeners() {
+        for (Consumer<CircuitBreaker> listener : listeners) {
+            listener.accept(this);
+        }
+    }
+
+    /**
+     * @param listener Se invoca en cada cambio de estado, desde el hilo que lo provoca
+     */
+    public void addListener(Consumer<CircuitBreaker> listener) {
+        listeners.add(listener);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return Milisegundos hasta que se permita la llamada de prueba, o 0 si no está abierto
+     */
+    public synchronized long getRemainingOpenMillis() {
+        return state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+    }
+
+    public synchronized double getFailureRate() {
+        return count == 0 ? 0 : rateOf(FAILED);
+    }
+}
@@ -0,0 +1,83 @@
+package es.furynocturntv.mcreator.deepseek.utils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Registro de los cortocircuitos de cada backend, para que la interfaz pueda mostrar
+ * su estado y reaccionar a los cambios.
+ * Implementa un patrón Singleton para acceso global
+ */
+public class CircuitBreakerRegistry {
+    public static final String ONLINE = "online";
+    private static final String LOCAL_PREFIX = "local:";
+
+    private static CircuitBreakerRegistry instance;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final List<Consumer<CircuitBreaker>> listeners = new CopyOnWriteArrayList<>();
+
+    private CircuitBreakerRegistry() {
+    }
+
+    public static synchronized CircuitBreakerRegistry getInstance() {
+        if (instance == null) {
+            instance = new CircuitBreakerRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Cortocircuito de la API online
+     */
+    public CircuitBreaker online() {
+        return api(ONLINE);
+    }
+
+    /**
+     * Cortocircuito de un backend remoto. Lenta es la que tarda más de 10 s en devolver cabeceras
+     */
+    public CircuitBreaker api(String backendName) {
+        return breakers.computeIfAbsent(backendName, name -> register(new CircuitBreaker(name,
+                20, 5, 0.5, TimeUnit.SECONDS.toMillis(10), 0.8,
+                TimeUnit.SECONDS.toMillis(15), TimeUnit.MINUTES.toMillis(5))));
+    }
+
+    /**
+     * Cortocircuito del servidor llama.cpp de un modelo local. Solo las llamadas en streaming
+     * miden lentitud, hasta el primer byte; el umbral es amplio porque en CPU incluye el prefill.
+     */
+    public CircuitBreaker local(String modelName) {
+        return breakers.computeIfAbsent(LOCAL_PREFIX + modelName, name -> register(new CircuitBreaker(name,
+                10, 3, 0.5, TimeUnit.MINUTES.toMillis(2), 0.8,
+                TimeUnit.SECONDS.toMillis(10), TimeUnit.MINUTES.toMillis(2))));
+    }
+
+    private CircuitBreaker register(CircuitBreaker breaker) {
+        breaker.addListener(changed -> listeners.forEach(listener -> listener.accept(changed)));
+        return breaker;
+    }
+
+    /**
+     * Cortocircuitos creados hasta ahora, ordenados por nombre
+     */
+    public Map<String, CircuitBreaker> getBreakers() {
+        return new TreeMap<>(breakers);
+    }
+
+    /**
+     * @param listener Se invoca cuando cualquier cortocircuito cambia de estado
+     */
+    public void addListener(Consumer<CircuitBreaker> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<CircuitBreaker> listener) {
+        listeners.remove(listener);
+    }
+}
@@ -1,20 +1,91 @@
 package es.furynocturntv.mcreator.deepseek.utils;
 
+import es.furynocturntv.mcreator.deepseek.models.OutputGrammar;
+import es.furynocturntv.mcreator.deepseek.services.DeepSeekClient;
 import es.furynocturntv.mcreator.deepseek.services.MCreatorWorkspace;
+import es.furynocturntv.mcreator.deepseek.utils.RequestScheduler.Priority;
 import net.mcreator.element.*;
 import net.mcreator.element.types.*;
 import net.mcreator.workspace.*;
+import org.json.JSONObject;
+
+import javax.swing.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 public class CodeGenerator {
     private final MCreatorWorkspace workspace;
+    private final DeepSeekClient apiClient;
+    private final SettingsManager settingsManager;
 
-    public CodeGenerator(MCreatorWorkspace workspace) {
+    public CodeGenerator(MCreatorWorkspace workspace, DeepSeekClient apiClient, SettingsManager settingsManager) {
         this.workspace = workspace;
+        this.apiClient = apiClient;
+        this.settingsManager = settingsManager;
+    }
+
+    /**
+     * Pide el código al modelo seleccionado y lo implementa. La respuesta se genera con
+     * {@link OutputGrammar#CODE_BLOCK}, así que es un único bloque de código.
+     * @param request Qué debe hacer el código
+     * @return Future que se completa, desde el EDT, cuando el código está guardado en el workspace
+     */
+    public CompletableFuture<Void> generateCode(String request, String elementName, CodeType codeType) {
+        String prompt = String.format("Escribe %s de MCreator llamado %s. %s",
+                describe(codeType), elementName, request);
+        return apiClient.sendStructuredRequestAsync(prompt, settingsManager.getSelectedModel(),
+                        OutputGrammar.CODE_BLOCK, Priority.INTERACTIVE)
+                .thenCompose(response -> onEdt(() -> {
+                    implementCode(response, elementName, codeType);
+                    return null;
+                }));
+    }
+
+    /**
+     * Pide al modelo un cambio sobre una clase personalizada y lo aplica. La respuesta se
+     * genera con {@link OutputGrammar#CODE_EDIT}: el código completo y una explicación.
+     * Debe llamarse desde el EDT, porque lee el código actual del workspace.
+     * @param className Clase a modificar
+     * @param instruction Cambio que se quiere hacer
+     * @return Future con la explicación del cambio, completado desde el EDT una vez guardado
+     */
+    public CompletableFuture<String> editCode(String className, String instruction) {
+        CustomElement element = workspace.getModElementManager().getModElementByName(className, CustomElement.class)
+                .orElseThrow(() -> new IllegalArgumentException("Clase no encontrada: " + className));
+        String prompt = String.format("Archivo: %s.java\n```java\n%s\n```\n\n%s", className, element.code, instruction);
+
+        return apiClient.sendStructuredRequestAsync(prompt, settingsManager.getSelectedModel(),
+                        OutputGrammar.CODE_EDIT, Priority.INTERACTIVE)
+                .thenCompose(response -> {
+                    JSONObject edit = OutputGrammar.CODE_EDIT.parse(response);
+                    return onEdt(() -> {
+                        element.code = edit.getString("code");
+                        workspace.getModElementManager().storeModElement(element);
+                        workspace.getGenerator().generateElement(element);
+                        workspace.markDirty();
+                        return edit.getString("explanation");
+                    });
+                });
+    }
+
+    /**
+     * Pide al modelo la especificación de un elemento a partir de una descripción libre. La
+     * respuesta se genera con {@link OutputGrammar#ELEMENT_SPEC}.
+     * @return Future con "elementType", "name", "description" y "properties"
+     */
+    public CompletableFuture<JSONObject> generateElementSpec(String description) {
+        String prompt = "Especifica el elemento de MCreator que se describe: " + description;
+        return apiClient.sendStructuredRequestAsync(prompt, settingsManager.getSelectedModel(),
+                        OutputGrammar.ELEMENT_SPEC, Priority.INTERACTIVE)
+                .thenApply(OutputGrammar.ELEMENT_SPEC::parse);
     }
 
+    /**
+     * Guarda el código en el workspace. Debe llamarse desde el EDT, como cualquier cambio en MCreator.
+     */
     public void implementCode(String code, String elementName, CodeType codeType) throws Exception {
         // Extraer el código relevante entre los marcadores ```
-        String cleanCode = extractCodeBlock(code);
+        String cleanCode = OutputGrammar.CODE_BLOCK.parseCode(code);
 
         switch (codeType) {
             case PROCEDURE:
@@ -33,14 +104,27 @@ public class CodeGenerator {
         workspace.markDirty();
     }
 
-    private String extractCodeBlock(String code) {
-        if (code.contains("```")) {
-            String[] parts = code.split("```");
-            if (parts.length >= 2) {
-                return parts[1].replaceFirst("^[a-zA-Z]*\n", ""); // Eliminar lenguaje si existe
+    /**
+     * Ejecuta en el EDT una escritura en el workspace; las respuestas llegan en hilos de red
+     */
+    private static <T> CompletableFuture<T> onEdt(Callable<T> write) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        SwingUtilities.invokeLater(() -> {
+            try {
+                result.complete(write.call());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
             }
-        }
-        return code;
+        });
+        return result;
+    }
+
+    private static String describe(CodeType codeType) {
+        return switch (codeType) {
+            case PROCEDURE -> "el código de un procedimiento";
+            case CLASS -> "una clase Java";
+            case METHOD -> "un método Java para la clase";
+        };
     }
 
     private void implementProcedure(String code, String procedureName) throws Exception {
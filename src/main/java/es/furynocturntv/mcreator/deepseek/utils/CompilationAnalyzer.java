@@ -1,7 +1,13 @@
 package es.furynocturntv.mcreator.deepseek.utils;
 
+import es.furynocturntv.mcreator.deepseek.models.OutputGrammar;
+import es.furynocturntv.mcreator.deepseek.services.DeepSeekClient;
+import es.furynocturntv.mcreator.deepseek.utils.RequestScheduler.Priority;
+import org.json.JSONObject;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -9,6 +15,52 @@ public class CompilationAnalyzer {
     private static final Pattern ERROR_PATTERN = Pattern.compile(
             "ERROR in (.*)\\((\\d+),(\\d+)\\): (.*)"
     );
+    // Errores que se clasifican con el modelo; un error suele arrastrar otros, y en CPU cada uno tarda
+    private static final int MAX_CLASSIFIED_ERRORS = 5;
+
+    private final DeepSeekClient apiClient;
+    private final SettingsManager settingsManager;
+
+    public CompilationAnalyzer(DeepSeekClient apiClient, SettingsManager settingsManager) {
+        this.apiClient = apiClient;
+        this.settingsManager = settingsManager;
+    }
+
+    /**
+     * Analiza los errores con el modelo seleccionado, en segundo plano para no retrasar al chat.
+     * Los primeros errores se clasifican por separado con {@link OutputGrammar#ERROR_CLASSIFICATION};
+     * el resto, o los que el modelo no consigue clasificar, conservan la sugerencia básica.
+     * @return Future con el análisis cuando todas las clasificaciones han terminado
+     */
+    public CompletableFuture<AnalysisResult> analyzeErrorsAsync(String errorLog) {
+        AnalysisResult result = analyzeErrors(errorLog);
+        List<CompletableFuture<Void>> classifications = new ArrayList<>();
+        if (result.errors.size() > MAX_CLASSIFIED_ERRORS) {
+            PluginLogger.log(String.format("Se clasifican %d de %d errores de compilación",
+                    MAX_CLASSIFIED_ERRORS, result.errors.size()), PluginLogger.Level.DEBUG);
+        }
+
+        for (ErrorDetail error : result.errors.subList(0, Math.min(MAX_CLASSIFIED_ERRORS, result.errors.size()))) {
+            String prompt = String.format("Error de compilación en %s, línea %d, columna %d:\n%s",
+                    error.filePath, error.line, error.column, error.message);
+            classifications.add(apiClient.sendStructuredRequestAsync(prompt, settingsManager.getSelectedModel(),
+                            OutputGrammar.ERROR_CLASSIFICATION, Priority.BACKGROUND)
+                    .thenAccept(response -> {
+                        JSONObject classification = OutputGrammar.ERROR_CLASSIFICATION.parse(response);
+                        error.category = classification.getString("category");
+                        error.suggestion = classification.getString("explanation") + "\n"
+                                + classification.getString("fix");
+                    })
+                    .exceptionally(e -> {
+                        PluginLogger.log("No se pudo clasificar el error de " + error.filePath + ": "
+                                + Futures.unwrap(e).getMessage(), PluginLogger.Level.DEBUG);
+                        return null;
+                    }));
+        }
+
+        return CompletableFuture.allOf(classifications.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> result);
+    }
 
     public AnalysisResult analyzeErrors(String errorLog) {
         AnalysisResult result = new AnalysisResult();
@@ -54,6 +106,8 @@ public class CompilationAnalyzer {
         public int line;
         public int column;
         public String message;
+        // Categoría de OutputGrammar.ERROR_CLASSIFICATION, o null si no la clasificó el modelo
+        public String category;
         public String suggestion;
 
         @Override
@@ -0,0 +1,79 @@
+package es.furynocturntv.mcreator.deepseek.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Utilidades para encadenar CompletableFuture sin perder la cancelación.
+ * Los futures dependientes de la JDK no propagan cancel() hacia la etapa que los alimenta,
+ * así que cancelar una solicitud dejaría la llamada HTTP real en marcha.
+ */
+public final class Futures {
+
+    private Futures() {
+    }
+
+    /**
+     * Equivalente a thenCompose pero cancelar el resultado cancela la etapa activa
+     * @param first Primera etapa
+     * @param next Función que lanza la segunda etapa con el resultado de la primera
+     * @return Future con el resultado de la segunda etapa
+     */
+    public static <A, B> CompletableFuture<B> thenComposeCancellable(
+            CompletableFuture<A> first, Function<? super A, ? extends CompletableFuture<B>> next) {
+        CompletableFuture<B> result = new CompletableFuture<>();
+
+        first.whenComplete((value, error) -> {
+            if (error != null) {
+                result.completeExceptionally(unwrap(error));
+                return;
+            }
+            if (result.isDone()) {
+                return;
+            }
+
+            CompletableFuture<B> second;
+            try {
+                second = next.apply(value);
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+                return;
+            }
+
+            propagateCancel(result, second);
+            second.whenComplete((secondValue, secondError) -> {
+                if (secondError != null) {
+                    result.completeExceptionally(unwrap(secondError));
+                } else {
+                    result.complete(secondValue);
+                }
+            });
+        });
+
+        propagateCancel(result, first);
+        return result;
+    }
+
+    /**
+     * Cancela {@code target} cuando se cancela {@code source}
+     */
+    public static void propagateCancel(CompletableFuture<?> source, CompletableFuture<?> target) {
+        source.whenComplete((value, error) -> {
+            if (source.isCancelled()) {
+                target.cancel(true);
+            }
+        });
+    }
+
+    /**
+     * Obtiene la causa real de un error envuelto por la maquinaria de futures
+     */
+    public static Throwable unwrap(Throwable error) {
+        if ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+}
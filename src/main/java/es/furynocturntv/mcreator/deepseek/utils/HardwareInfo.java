@@ -0,0 +1,137 @@
+package es.furynocturntv.mcreator.deepseek.utils;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Recursos de la máquina que importan para servir modelos locales: núcleos físicos y
+ * lógicos, memoria total y disponible, y si hay una GPU que llama.cpp pueda usar.
+ *
+ * En Linux se leen /proc/cpuinfo y /proc/meminfo; en otros sistemas se usan los valores de
+ * la JVM (que no distinguen núcleos físicos de hilos SMT).
+ */
+public class HardwareInfo {
+    private static HardwareInfo cached;
+
+    public final int logicalCores;
+    public final int physicalCores;
+    public final long totalMemoryBytes;
+    public final boolean gpu;
+
+    private HardwareInfo(int logicalCores, int physicalCores, long totalMemoryBytes, boolean gpu) {
+        this.logicalCores = logicalCores;
+        this.physicalCores = physicalCores;
+        this.totalMemoryBytes = totalMemoryBytes;
+        this.gpu = gpu;
+    }
+
+    /**
+     * Datos de la máquina; se detectan una vez (la memoria disponible se consulta en cada llamada
+     * a {@link #getAvailableMemoryBytes()})
+     */
+    public static synchronized HardwareInfo detect() {
+        if (cached == null) {
+            // availableProcessors ya respeta los límites de CPU del contenedor
+            int logical = Runtime.getRuntime().availableProcessors();
+            int physical = Math.min(logical, countPhysicalCores(logical));
+            cached = new HardwareInfo(logical, physical, readTotalMemory(), detectGpu());
+            PluginLogger.log(String.format("Hardware: %d núcleos físicos, %d lógicos, %d MB de RAM, GPU %s",
+                    physical, logical, cached.totalMemoryBytes / (1024 * 1024), cached.gpu ? "sí" : "no"),
+                    PluginLogger.Level.DEBUG);
+        }
+        return cached;
+    }
+
+    /**
+     * Memoria que se puede reservar ahora sin forzar al sistema a paginar
+     */
+    public long getAvailableMemoryBytes() {
+        long available = readMeminfo("MemAvailable:");
+        if (available > 0) {
+            return available;
+        }
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean physical) {
+            return physical.getFreeMemorySize();
+        }
+        return totalMemoryBytes;
+    }
+
+    /**
+     * Hilos lógicos por núcleo físico (2 con SMT/Hyper-Threading)
+     */
+    public int getThreadsPerCore() {
+        return Math.max(1, logicalCores / Math.max(1, physicalCores));
+    }
+
+    /**
+     * Núcleos físicos distintos según /proc/cpuinfo (pares "physical id"/"core id")
+     */
+    private static int countPhysicalCores(int fallback) {
+        try {
+            List<String> lines = Files.readAllLines(Path.of("/proc/cpuinfo"));
+            Set<String> cores = new HashSet<>();
+            String physicalId = "0";
+            for (String line : lines) {
+                if (line.startsWith("physical id")) {
+                    physicalId = value(line);
+                } else if (line.startsWith("core id")) {
+                    cores.add(physicalId + ":" + value(line));
+                }
+            }
+            return cores.isEmpty() ? fallback : cores.size();
+        } catch (IOException | RuntimeException e) {
+            return fallback;
+        }
+    }
+
+    private static long readTotalMemory() {
+        long total = readMeminfo("MemTotal:");
+        if (total > 0) {
+            return total;
+        }
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean physical) {
+            return physical.getTotalMemorySize();
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    /**
+     * Valor en bytes de una línea de /proc/meminfo, o -1 si no existe
+     */
+    private static long readMeminfo(String key) {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/meminfo"))) {
+                if (line.startsWith(key)) {
+                    return Long.parseLong(line.substring(key.length()).trim().split("\\s+")[0]) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Sin /proc (Windows, macOS)
+        }
+        return -1;
+    }
+
+    /**
+     * GPU NVIDIA con controlador cargado, o Apple Silicon (Metal con memoria unificada)
+     */
+    private static boolean detectGpu() {
+        String os = System.getProperty("os.name").toLowerCase();
+        String arch = System.getProperty("os.arch").toLowerCase();
+        if (os.contains("mac") && arch.contains("aarch64")) {
+            return true;
+        }
+        return Files.exists(Path.of("/proc/driver/nvidia/version"));
+    }
+
+    private static String value(String line) {
+        return line.substring(line.indexOf(':') + 1).trim();
+    }
+}
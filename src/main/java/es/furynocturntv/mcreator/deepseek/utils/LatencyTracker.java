@@ -0,0 +1,44 @@
+package es.furynocturntv.mcreator.deepseek.utils;
+
+import java.util.Arrays;
+
+/**
+ * Ventana circular con las latencias más recientes para calcular percentiles.
+ * Se usa para decidir cuándo una solicitud tarda más de lo habitual.
+ */
+public class LatencyTracker {
+    private final long[] samples;
+    private int count = 0;
+    private int next = 0;
+
+    /**
+     * @param capacity Número de muestras recientes que se conservan
+     */
+    public LatencyTracker(int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    public synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    public synchronized int getSampleCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile Percentil entre 0 y 100
+     * @return Latencia del percentil en milisegundos, o -1 si aún no hay muestras
+     */
+    public synchronized long percentile(double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
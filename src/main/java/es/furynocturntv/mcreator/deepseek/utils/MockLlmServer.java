@@ -0,0 +1,308 @@
+package es.furynocturntv.mcreator.deepseek.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Servidor de pruebas que imita una API compatible con OpenAI (/v1/chat/completions) y el
+ * servidor de llama.cpp (/completion, /slots y /health), sin modelo real. Permite medir y probar
+ * todo el recorrido de una solicitud sin red ni GPU: latencia hasta las cabeceras, pausa
+ * entre fragmentos de streaming, respuestas 429 periódicas y errores 500 aleatorios.
+ *
+ * Uso: MockLlmServer [--port 9000] [--latency ms] [--token-delay ms] [--tokens n]
+ *                    [--rate-limit-every n] [--error-rate 0.0-1.0] [--draft-acceptance 0.0-1.0]
+ *
+ * Para dirigir el plugin al servidor basta con configurar "http://127.0.0.1:9000/v1" como
+ * URL base de la API (o usar --base-url en BatchRunner).
+ */
+public class MockLlmServer {
+
+    /**
+     * Comportamiento simulado del servidor
+     */
+    public static class Options {
+        public int port = 9000;
+        // Espera antes de enviar las cabeceras de la respuesta
+        public long latencyMillis = 0;
+        // Pausa entre fragmentos de una respuesta en streaming
+        public long tokenDelayMillis = 0;
+        // Palabras de cada respuesta generada
+        public int tokens = 32;
+        // Cada cuántas solicitudes se responde 429 (0 para nunca)
+        public int rateLimitEvery = 0;
+        // Fracción de solicitudes que fallan con 500
+        public double errorRate = 0;
+        // Fracción de tokens del borrador aceptados que se informa en /completion (-1 sin borrador)
+        public double draftAcceptance = -1;
+    }
+
+    private final Options options;
+    private final AtomicLong requests = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public MockLlmServer(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port" -> options.port = Integer.parseInt(args[i + 1]);
+                case "--latency" -> options.latencyMillis = Long.parseLong(args[i + 1]);
+                case "--token-delay" -> options.tokenDelayMillis = Long.parseLong(args[i + 1]);
+                case "--tokens" -> options.tokens = Integer.parseInt(args[i + 1]);
+                case "--rate-limit-every" -> options.rateLimitEvery = Integer.parseInt(args[i + 1]);
+                case "--error-rate" -> options.errorRate = Double.parseDouble(args[i + 1]);
+                case "--draft-acceptance" -> options.draftAcceptance = Double.parseDouble(args[i + 1]);
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(64);
+                }
+            }
+        }
+
+        MockLlmServer server = new MockLlmServer(options);
+        server.start();
+        // Misma línea que llama.cpp, para que LlamaClient detecte el arranque igual que con el real
+        System.err.println("main: server is listening on http://127.0.0.1:" + server.getPort()
+                + " - starting the main loop");
+    }
+
+    /**
+     * Arranca el servidor; con el puerto 0 se elige uno libre
+     */
+    public synchronized void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), options.port), 0);
+        // Cada solicitud se atiende en un hilo virtual: las esperas simuladas no cuestan hilos
+        executor = TaskExecutor.getInstance().group("mock-server").asExecutorService();
+        server.setExecutor(executor);
+        server.createContext("/health", exchange -> respond(exchange, 200, "{\"status\":\"ok\"}"));
+        server.createContext("/v1/chat/completions", this::handleChat);
+        server.createContext("/chat/completions", this::handleChat);
+        server.createContext("/completion", this::handleCompletion);
+        server.createContext("/slots", this::handleSlots);
+        server.start();
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdown();
+            server = null;
+        }
+    }
+
+    /**
+     * URL base compatible con OpenAI, p. ej. "http://127.0.0.1:9000/v1"
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + getPort() + "/v1";
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    private void handleChat(HttpExchange exchange) throws IOException {
+        if (rejectSimulated(exchange)) {
+            return;
+        }
+
+        JSONObject request = readJson(exchange);
+        JSONArray messages = request.optJSONArray("messages");
+        String prompt = messages != null && messages.length() > 0
+                ? messages.getJSONObject(messages.length() - 1).optString("content") : "";
+        int promptTokens = 0;
+        for (int i = 0; messages != null && i < messages.length(); i++) {
+            promptTokens += estimateTokens(messages.getJSONObject(i).optString("content"));
+        }
+        String[] words = generate(prompt);
+
+        JSONObject usage = new JSONObject()
+                .put("prompt_tokens", promptTokens)
+                .put("completion_tokens", words.length)
+                .put("total_tokens", promptTokens + words.length)
+                .put("prompt_cache_hit_tokens", 0)
+                .put("prompt_cache_miss_tokens", promptTokens);
+
+        if (!request.optBoolean("stream", false)) {
+            JSONObject response = new JSONObject()
+                    .put("id", "mock-" + requests.get())
+                    .put("object", "chat.completion")
+                    .put("model", request.optString("model", "mock"))
+                    .put("choices", new JSONArray().put(new JSONObject()
+                            .put("index", 0)
+                            .put("message", new JSONObject().put("role", "assistant").put("content", String.join("", words)))
+                            .put("finish_reason", "stop")))
+                    .put("usage", usage);
+            respond(exchange, 200, response.toString());
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream body = exchange.getResponseBody()) {
+            for (String word : words) {
+                JSONObject chunk = new JSONObject().put("choices", new JSONArray().put(new JSONObject()
+                        .put("index", 0)
+                        .put("delta", new JSONObject().put("content", word))));
+                writeEvent(body, chunk.toString());
+                pause(options.tokenDelayMillis);
+            }
+            writeEvent(body, new JSONObject().put("choices", new JSONArray()).put("usage", usage).toString());
+            writeEvent(body, "[DONE]");
+        }
+    }
+
+    /**
+     * Formato de /completion de llama.cpp (con "stream": true, eventos data: por token)
+     */
+    private void handleCompletion(HttpExchange exchange) throws IOException {
+        if (rejectSimulated(exchange)) {
+            return;
+        }
+
+        JSONObject request = readJson(exchange);
+        String prompt = request.optString("prompt");
+        String[] words = generate(prompt);
+        long start = System.nanoTime();
+
+        if (!request.optBoolean("stream", false)) {
+            JSONObject response = new JSONObject()
+                    .put("content", String.join("", words))
+                    .put("stop", true)
+                    .put("tokens_evaluated", estimateTokens(prompt))
+                    .put("tokens_predicted", words.length)
+                    .put("id_slot", request.optInt("id_slot", -1))
+                    .put("timings", timings(words.length, start));
+            respond(exchange, 200, response.toString());
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream body = exchange.getResponseBody()) {
+            for (String word : words) {
+                writeEvent(body, new JSONObject().put("content", word).put("stop", false).toString());
+                pause(options.tokenDelayMillis);
+            }
+            writeEvent(body, new JSONObject()
+                    .put("content", "")
+                    .put("stop", true)
+                    .put("tokens_evaluated", estimateTokens(prompt))
+                    .put("tokens_predicted", words.length)
+                    .put("id_slot", request.optInt("id_slot", -1))
+                    .put("timings", timings(words.length, start)).toString());
+        }
+    }
+
+    /**
+     * Formato de /slots/{id}?action=save|restore de llama.cpp; no guarda nada
+     */
+    private void handleSlots(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String query = String.valueOf(exchange.getRequestURI().getQuery());
+        JSONObject request = readJson(exchange);
+        JSONObject response = new JSONObject()
+                .put("id_slot", Integer.parseInt(path.substring(path.lastIndexOf('/') + 1)))
+                .put("filename", request.optString("filename"));
+        response.put(query.contains("action=restore") ? "n_restored" : "n_saved", 0);
+        respond(exchange, 200, response.toString());
+    }
+
+    /**
+     * Aplica la latencia y, si toca, responde 429 o 500
+     * @return true si la solicitud ya se respondió con un error simulado
+     */
+    private boolean rejectSimulated(HttpExchange exchange) throws IOException {
+        long number = requests.incrementAndGet();
+        pause(options.latencyMillis);
+
+        if (options.rateLimitEvery > 0 && number % options.rateLimitEvery == 0) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            respond(exchange, 429, "{\"error\":{\"message\":\"Rate limit reached (mock)\"}}");
+            return true;
+        }
+        if (options.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < options.errorRate) {
+            respond(exchange, 500, "{\"error\":{\"message\":\"Internal error (mock)\"}}");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Respuesta determinista a partir del prompt, dividida en palabras (un "token" cada una)
+     */
+    private String[] generate(String prompt) {
+        String[] source = ("Respuesta simulada a: " + prompt.replaceAll("\\s+", " ").trim()).split(" ");
+        String[] words = new String[Math.max(1, options.tokens)];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = (i == 0 ? "" : " ") + source[i % source.length];
+        }
+        return words;
+    }
+
+    private static int estimateTokens(String text) {
+        return Math.max(1, text.length() / 4);
+    }
+
+    private JSONObject timings(int predicted, long startNanos) {
+        double millis = (System.nanoTime() - startNanos) / 1_000_000.0;
+        JSONObject timings = new JSONObject()
+                .put("predicted_n", predicted)
+                .put("predicted_ms", millis)
+                .put("predicted_per_second", millis > 0 ? predicted * 1000.0 / millis : 0);
+        if (options.draftAcceptance >= 0) {
+            int proposed = predicted * 2;
+            timings.put("draft_n", proposed).put("draft_n_accepted", Math.round(proposed * options.draftAcceptance));
+        }
+        return timings;
+    }
+
+    private static JSONObject readJson(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        return body.isBlank() ? new JSONObject() : new JSONObject(body);
+    }
+
+    private static void writeEvent(OutputStream body, String data) throws IOException {
+        body.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        body.flush();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+
+    private static void pause(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
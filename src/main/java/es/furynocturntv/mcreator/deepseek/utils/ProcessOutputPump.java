@@ -0,0 +1,107 @@
+package es.furynocturntv.mcreator.deepseek.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+
+/**
+ * Lee en segundo plano la salida de un proceso externo (p. ej. un servidor llama.cpp) y
+ * guarda las últimas líneas en un búfer circular. Sin este lector, un proceso que escribe
+ * mucho llena la tubería y se queda bloqueado.
+ *
+ * Además avisa de la primera línea que coincide con un patrón, lo que permite detectar que
+ * el proceso está listo sin esperar al siguiente sondeo.
+ */
+public class ProcessOutputPump {
+    // Las líneas más largas (p. ej. volcados de tensores) se recortan al guardarlas
+    private static final int MAX_LINE_LENGTH = 2000;
+
+    private final String name;
+    private final int capacity;
+    private final ArrayDeque<String> lines;
+    private final CompletableFuture<String> matchedLine = new CompletableFuture<>();
+    private long totalLines;
+
+    /**
+     * @param name Nombre del proceso, para el grupo de tareas y el volcado
+     * @param capacity Líneas que se conservan
+     */
+    public ProcessOutputPump(String name, int capacity) {
+        this.name = name;
+        this.capacity = capacity;
+        this.lines = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Empieza a leer la salida del proceso (con redirectErrorStream, también la de error)
+     * @param readyPattern Patrón de la línea que completa {@link #getMatchedLine()}, o null
+     */
+    public void start(Process process, Pattern readyPattern) {
+        // Hilo de plataforma propio: la lectura de la tubería bloquea dentro de un stream
+        // sincronizado y fijaría el portador de un hilo virtual mientras viva el proceso
+        Thread.ofPlatform().daemon().name("deepseek-output-" + name).start(() -> {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    append(line);
+                    if (readyPattern != null && !matchedLine.isDone() && readyPattern.matcher(line).find()) {
+                        matchedLine.complete(line);
+                    }
+                }
+            } catch (IOException e) {
+                // La tubería se cierra al destruir el proceso
+            } finally {
+                matchedLine.completeExceptionally(new IOException("Process output closed: " + name));
+            }
+        });
+    }
+
+    /**
+     * Se completa con la primera línea que coincide con el patrón, o con error si la salida
+     * se cierra antes
+     */
+    public CompletableFuture<String> getMatchedLine() {
+        return matchedLine;
+    }
+
+    private synchronized void append(String line) {
+        if (lines.size() == capacity) {
+            lines.removeFirst();
+        }
+        lines.addLast(line.length() > MAX_LINE_LENGTH ? line.substring(0, MAX_LINE_LENGTH) + "…" : line);
+        totalLines++;
+    }
+
+    /**
+     * Últimas líneas guardadas, de la más antigua a la más reciente
+     */
+    public synchronized List<String> getLines() {
+        return new ArrayList<>(lines);
+    }
+
+    /**
+     * Las últimas líneas indicadas unidas en un texto
+     */
+    public synchronized String tail(int count) {
+        List<String> all = new ArrayList<>(lines);
+        return String.join(System.lineSeparator(), all.subList(Math.max(0, all.size() - count), all.size()));
+    }
+
+    /**
+     * Líneas leídas desde el arranque, incluidas las que ya se descartaron
+     */
+    public synchronized long getTotalLines() {
+        return totalLines;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
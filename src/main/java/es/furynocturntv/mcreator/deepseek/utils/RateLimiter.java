@@ -0,0 +1,209 @@
+package es.furynocturntv.mcreator.deepseek.utils;
+
+import okhttp3.Headers;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Limitador de tasa por cubetas de tokens (token bucket).
+ * En lugar de rechazar o dormir hilos, cada solicitud reserva un permiso y recibe
+ * un future que se completa cuando le toca salir. Las solicitudes en ráfaga se
+ * reparten en el tiempo manteniendo el orden de llegada.
+ *
+ * Las cubetas se identifican por clave (p. ej. "online" y "online:deepseek-chat"),
+ * de modo que una solicitud puede necesitar permiso del backend y del modelo a la vez.
+ */
+public class RateLimiter {
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|s|m|h)");
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Map<String, Limits> overrides = new ConcurrentHashMap<>();
+    private final DoubleSupplier defaultPermitsPerSecond;
+    private final IntSupplier defaultBurst;
+    private final TaskExecutor.TaskGroup tasks = TaskExecutor.getInstance().group("rate-limiter");
+
+    /**
+     * @param defaultPermitsPerSecond Tasa de recarga de las cubetas sin configuración propia
+     * @param defaultBurst Capacidad máxima de las cubetas sin configuración propia
+     */
+    public RateLimiter(DoubleSupplier defaultPermitsPerSecond, IntSupplier defaultBurst) {
+        this.defaultPermitsPerSecond = defaultPermitsPerSecond;
+        this.defaultBurst = defaultBurst;
+    }
+
+    /**
+     * Crea un limitador con los valores de la configuración del usuario
+     */
+    public static RateLimiter fromSettings(SettingsManager settingsManager) {
+        return new RateLimiter(
+                () -> 1000.0 / Math.max(1, settingsManager.getRateLimitDelay()),
+                settingsManager::getRateLimitBurst
+        );
+    }
+
+    /**
+     * Fija tasa y ráfaga propias para una cubeta concreta
+     */
+    public void setLimits(String key, double permitsPerSecond, int burst) {
+        overrides.put(key, new Limits(permitsPerSecond, burst));
+    }
+
+    /**
+     * Reserva un permiso en cada una de las cubetas indicadas
+     * @param keys Claves de las cubetas implicadas
+     * @return Future que se completa cuando todas las cubetas conceden el permiso.
+     *         Cancelarlo antes de tiempo devuelve los permisos reservados.
+     */
+    public CompletableFuture<Void> acquire(String... keys) {
+        long delayNanos = 0;
+        Bucket[] reserved = new Bucket[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            reserved[i] = bucket(keys[i]);
+            delayNanos = Math.max(delayNanos, reserved[i].reserve());
+        }
+
+        if (delayNanos <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        ScheduledFuture<?> release = tasks.schedule(() -> permit.complete(null), delayNanos, TimeUnit.NANOSECONDS);
+        permit.whenComplete((ignored, error) -> {
+            if (permit.isCancelled()) {
+                release.cancel(false);
+                for (Bucket bucket : reserved) {
+                    bucket.refund();
+                }
+            }
+        });
+        return permit;
+    }
+
+    /**
+     * Detiene una cubeta durante el tiempo indicado (p. ej. tras un 429 con Retry-After)
+     */
+    public void pause(String key, long millis) {
+        bucket(key).pauseUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Ajusta la cubeta según las cabeceras de límite de tasa de la API.
+     * Si el servidor indica que no quedan solicitudes, se pausa hasta el reinicio anunciado.
+     */
+    public void updateFromHeaders(String key, Headers headers) {
+        String remaining = headers.get("x-ratelimit-remaining-requests");
+        String reset = headers.get("x-ratelimit-reset-requests");
+        if (remaining == null) {
+            return;
+        }
+
+        try {
+            Bucket bucket = bucket(key);
+            bucket.capTokens(Double.parseDouble(remaining.trim()));
+            if (Double.parseDouble(remaining.trim()) < 1 && reset != null) {
+                pause(key, parseDuration(reset));
+            }
+        } catch (NumberFormatException e) {
+            PluginLogger.log("Cabecera de límite de tasa no válida: " + remaining, PluginLogger.Level.WARN);
+        }
+    }
+
+    /**
+     * Convierte duraciones como "1s", "250ms", "6m0s" o "20" (segundos) a milisegundos
+     */
+    public static long parseDuration(String value) {
+        String trimmed = value.trim();
+        if (trimmed.matches("\\d+(\\.\\d+)?")) {
+            return (long) (Double.parseDouble(trimmed) * 1000);
+        }
+
+        double millis = 0;
+        Matcher matcher = DURATION_PART.matcher(trimmed);
+        while (matcher.find()) {
+            double amount = Double.parseDouble(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "ms": millis += amount; break;
+                case "s": millis += amount * 1000; break;
+                case "m": millis += amount * 60_000; break;
+                case "h": millis += amount * 3_600_000; break;
+            }
+        }
+        return (long) millis;
+    }
+
+    private Bucket bucket(String key) {
+        return buckets.computeIfAbsent(key, Bucket::new);
+    }
+
+    private Limits limitsFor(String key) {
+        Limits limits = overrides.get(key);
+        return limits != null ? limits : new Limits(defaultPermitsPerSecond.getAsDouble(), defaultBurst.getAsInt());
+    }
+
+    private static final class Limits {
+        final double permitsPerSecond;
+        final int burst;
+
+        Limits(double permitsPerSecond, int burst) {
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = Math.max(1, burst);
+        }
+    }
+
+    /**
+     * Cubeta individual. Los tokens pueden quedar en negativo: cada unidad de deuda
+     * representa una solicitud en cola que saldrá cuando la recarga la cubra.
+     */
+    private final class Bucket {
+        private final String key;
+        private double tokens;
+        private long lastRefill;
+        private long pausedUntil;
+
+        Bucket(String key) {
+            this.key = key;
+            this.tokens = limitsFor(key).burst;
+            this.lastRefill = System.nanoTime();
+            this.pausedUntil = lastRefill;
+        }
+
+        /**
+         * Consume un token y devuelve cuánto debe esperar la solicitud, en nanosegundos
+         */
+        synchronized long reserve() {
+            Limits limits = refill();
+            tokens -= 1;
+
+            long now = System.nanoTime();
+            long wait = tokens >= 0 ? 0 : (long) (-tokens / limits.permitsPerSecond * 1_000_000_000L);
+            return Math.max(wait, pausedUntil - now);
+        }
+
+        synchronized void refund() {
+            tokens = Math.min(tokens + 1, limitsFor(key).burst);
+        }
+
+        synchronized void pauseUntil(long nanoTime) {
+            pausedUntil = Math.max(pausedUntil, nanoTime);
+        }
+
+        synchronized void capTokens(double available) {
+            refill();
+            tokens = Math.min(tokens, available);
+        }
+
+        private Limits refill() {
+            Limits limits = limitsFor(key);
+            long now = System.nanoTime();
+            double elapsedSeconds = (now - lastRefill) / 1_000_000_000.0;
+            tokens = Math.min(limits.burst, tokens + elapsedSeconds * limits.permitsPerSecond);
+            lastRefill = now;
+            return limits;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package es.furynocturntv.mcreator.deepseek.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Planificador de solicitudes por prioridad delante del limitador de tasa.
+ *
+ * Cada backend tiene un número de plazas simultáneas y una cola por carril (interactivo,
+ * segundo plano y lotes). Las plazas libres se reparten por encolado justo ponderado: cada
+ * solicitud recibe una marca de finalización virtual según el peso de su carril y sale
+ * primero la de marca menor, de modo que los lotes avanzan sin bloquear al chat. Una plaza
+ * queda siempre reservada para el carril interactivo y, si aun así no hay sitio, se expulsa
+ * a la cola una solicitud de lote que todavía espera permiso del limitador.
+ *
+ * Implementa un patrón Singleton: todos los clientes comparten backends y plazas.
+ */
+public class RequestScheduler {
+    public enum Priority {
+        INTERACTIVE(16), BACKGROUND(4), BULK(1);
+
+        private final int weight;
+
+        Priority(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private static final int DEFAULT_CAPACITY = 4;
+
+    private static RequestScheduler instance;
+
+    private final Map<String, Backend> backends = new ConcurrentHashMap<>();
+    private final Map<String, IntSupplier> capacities = new ConcurrentHashMap<>();
+    private final Map<Priority, LaneMetrics> metrics = new EnumMap<>(Priority.class);
+
+    private RequestScheduler() {
+        for (Priority priority : Priority.values()) {
+            metrics.put(priority, new LaneMetrics());
+        }
+    }
+
+    public static synchronized RequestScheduler getInstance() {
+        if (instance == null) {
+            instance = new RequestScheduler();
+        }
+        return instance;
+    }
+
+    /**
+     * Fija cuántas solicitudes de un backend pueden estar en curso a la vez
+     */
+    public void setCapacity(String backend, IntSupplier capacity) {
+        capacities.put(backend, capacity);
+    }
+
+    /**
+     * Encola una solicitud en el carril indicado
+     * @param backend Backend al que va la solicitud (cada uno tiene sus propias plazas)
+     * @param admission Permiso previo al envío (p. ej. del limitador de tasa). Mientras no se
+     *                  concede, una solicitud de lote puede perder su plaza: el permiso se cancela
+     *                  y la solicitud vuelve a la cabeza de su cola
+     * @param work Envío real; la plaza se ocupa hasta que termina
+     * @return Future con el resultado; cancelarlo la saca de la cola o cancela el envío
+     */
+    public <T> CompletableFuture<T> submit(String backend, Priority priority,
+                                           Supplier<CompletableFuture<Void>> admission,
+                                           Supplier<CompletableFuture<T>> work) {
+        Ticket<T> ticket = new Ticket<>(priority, admission, work);
+        Backend lane = backends.computeIfAbsent(backend, Backend::new);
+        metrics.get(priority).submitted.incrementAndGet();
+
+        ticket.result.whenComplete((value, error) -> {
+            if (ticket.result.isCancelled()) {
+                lane.cancel(ticket);
+            }
+        });
+
+        lane.enqueue(ticket);
+        return ticket.result;
+    }
+
+    /**
+     * @param percentile Percentil entre 0 y 100
+     * @return Espera en cola (plaza y permiso) del carril, en milisegundos, o -1 sin muestras
+     */
+    public long getQueueWaitPercentile(Priority priority, double percentile) {
+        return metrics.get(priority).queueWait.percentile(percentile);
+    }
+
+    /**
+     * Resumen legible de colas y esperas por carril y backend
+     */
+    public String describe() {
+        StringBuilder summary = new StringBuilder();
+        for (Priority priority : Priority.values()) {
+            LaneMetrics lane = metrics.get(priority);
+            summary.append(String.format("%-12s enviadas %d, expulsadas %d, espera p50 %d ms, p95 %d ms%n",
+                    priority, lane.submitted.get(), lane.preempted.get(),
+                    lane.queueWait.percentile(50), lane.queueWait.percentile(95)));
+        }
+        new TreeMap<>(backends).forEach((name, backend) -> summary.append(backend.describe()));
+        return summary.toString();
+    }
+
+    private int capacityOf(String backend) {
+        IntSupplier capacity = capacities.get(backend);
+        return Math.max(1, capacity != null ? capacity.getAsInt() : DEFAULT_CAPACITY);
+    }
+
+    private static final class LaneMetrics {
+        final AtomicLong submitted = new AtomicLong();
+        final AtomicLong preempted = new AtomicLong();
+        final LatencyTracker queueWait = new LatencyTracker(500);
+    }
+
+    private static final class Ticket<T> {
+        final Priority priority;
+        final Supplier<CompletableFuture<Void>> admission;
+        final Supplier<CompletableFuture<T>> work;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final long enqueuedNanos = System.nanoTime();
+        double finishTag;
+        // Cambia en cada salida de la cola; invalida arranques de una salida anterior
+        int dispatches;
+        CompletableFuture<Void> pendingAdmission;
+
+        Ticket(Priority priority, Supplier<CompletableFuture<Void>> admission, Supplier<CompletableFuture<T>> work) {
+            this.priority = priority;
+            this.admission = admission;
+            this.work = work;
+        }
+    }
+
+    /**
+     * Colas y plazas de un backend. Todo el estado se protege con el monitor del objeto;
+     * el permiso y el envío se lanzan siempre fuera de él.
+     */
+    private final class Backend {
+        private final String name;
+        private final Map<Priority, ArrayDeque<Ticket<?>>> queues = new EnumMap<>(Priority.class);
+        private final Map<Priority, Double> lastFinish = new EnumMap<>(Priority.class);
+        private final Map<Priority, Integer> runningByLane = new EnumMap<>(Priority.class);
+        // Solicitudes con plaza que aún esperan su permiso, en orden de salida
+        private final Set<Ticket<?>> admitting = new LinkedHashSet<>();
+        private double virtualTime = 0;
+        private int running = 0;
+
+        Backend(String name) {
+            this.name = name;
+            for (Priority priority : Priority.values()) {
+                queues.put(priority, new ArrayDeque<>());
+                lastFinish.put(priority, 0.0);
+                runningByLane.put(priority, 0);
+            }
+        }
+
+        void enqueue(Ticket<?> ticket) {
+            synchronized (this) {
+                double start = Math.max(virtualTime, lastFinish.get(ticket.priority));
+                ticket.finishTag = start + 1.0 / ticket.priority.weight;
+                lastFinish.put(ticket.priority, ticket.finishTag);
+                queues.get(ticket.priority).addLast(ticket);
+
+                if (ticket.priority == Priority.INTERACTIVE && !hasSlot(Priority.INTERACTIVE)) {
+                    preemptBulk();
+                }
+            }
+            dispatch();
+        }
+
+        void cancel(Ticket<?> ticket) {
+            CompletableFuture<Void> admission;
+            synchronized (this) {
+                if (queues.get(ticket.priority).remove(ticket)) {
+                    return;
+                }
+                admission = ticket.pendingAdmission;
+            }
+            // Devuelve el permiso reservado; la plaza se libera al terminar el permiso
+            if (admission != null) {
+                admission.cancel(false);
+            }
+        }
+
+        /**
+         * Solo el carril interactivo puede ocupar la última plaza
+         */
+        private boolean hasSlot(Priority priority) {
+            int capacity = capacityOf(name);
+            int limit = priority == Priority.INTERACTIVE || capacity == 1 ? capacity : capacity - 1;
+            return running < limit;
+        }
+
+        /**
+         * Devuelve a la cola la última solicitud de lote que sigue esperando permiso
+         */
+        private void preemptBulk() {
+            Ticket<?> victim = null;
+            for (Ticket<?> ticket : admitting) {
+                boolean granted = ticket.pendingAdmission != null && ticket.pendingAdmission.isDone();
+                if (ticket.priority == Priority.BULK && !granted) {
+                    victim = ticket;
+                }
+            }
+            if (victim == null) {
+                return;
+            }
+
+            admitting.remove(victim);
+            victim.dispatches++;
+            CompletableFuture<Void> admission = victim.pendingAdmission;
+            victim.pendingAdmission = null;
+            release(victim);
+            queues.get(Priority.BULK).addFirst(victim);
+            metrics.get(Priority.BULK).preempted.incrementAndGet();
+            if (admission != null) {
+                admission.cancel(false);
+            }
+        }
+
+        private void dispatch() {
+            List<Runnable> ready = new ArrayList<>();
+            synchronized (this) {
+                while (true) {
+                    Ticket<?> next = null;
+                    for (Priority priority : Priority.values()) {
+                        Ticket<?> head = queues.get(priority).peekFirst();
+                        if (head != null && hasSlot(priority) && (next == null || head.finishTag < next.finishTag)) {
+                            next = head;
+                        }
+                    }
+                    if (next == null) {
+                        break;
+                    }
+
+                    queues.get(next.priority).pollFirst();
+                    virtualTime = Math.max(virtualTime, next.finishTag - 1.0 / next.priority.weight);
+                    running++;
+                    runningByLane.merge(next.priority, 1, Integer::sum);
+                    admitting.add(next);
+                    Ticket<?> dispatched = next;
+                    int dispatch = ++next.dispatches;
+                    ready.add(() -> start(dispatched, dispatch));
+                }
+            }
+            ready.forEach(Runnable::run);
+        }
+
+        private <T> void start(Ticket<T> ticket, int dispatch) {
+            CompletableFuture<Void> admission;
+            try {
+                admission = ticket.admission.get();
+            } catch (RuntimeException e) {
+                admission = CompletableFuture.failedFuture(e);
+            }
+
+            synchronized (this) {
+                if (ticket.dispatches != dispatch) {
+                    // Expulsada antes de pedir el permiso: se devuelve y volverá a pedirse
+                    admission.cancel(false);
+                    return;
+                }
+                ticket.pendingAdmission = admission;
+            }
+
+            // Cancelada mientras se pedía el permiso
+            if (ticket.result.isDone()) {
+                admission.cancel(false);
+            }
+
+            CompletableFuture<Void> granted = admission;
+            admission.whenComplete((ignored, error) -> {
+                synchronized (this) {
+                    if (ticket.pendingAdmission != granted) {
+                        // Permiso cancelado por expulsión: la solicitud ya está de nuevo en cola
+                        return;
+                    }
+                    ticket.pendingAdmission = null;
+                    admitting.remove(ticket);
+                }
+
+                if (error != null || ticket.result.isDone()) {
+                    finish(ticket);
+                    ticket.result.completeExceptionally(Futures.unwrap(error != null ? error
+                            : new IllegalStateException("Request already completed")));
+                    return;
+                }
+
+                metrics.get(ticket.priority).queueWait.record(
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ticket.enqueuedNanos));
+
+                CompletableFuture<T> work;
+                try {
+                    work = ticket.work.get();
+                } catch (RuntimeException e) {
+                    work = CompletableFuture.failedFuture(e);
+                }
+                Futures.propagateCancel(ticket.result, work);
+                work.whenComplete((value, workError) -> {
+                    finish(ticket);
+                    if (workError != null) {
+                        ticket.result.completeExceptionally(Futures.unwrap(workError));
+                    } else {
+                        ticket.result.complete(value);
+                    }
+                });
+            });
+        }
+
+        private void finish(Ticket<?> ticket) {
+            synchronized (this) {
+                release(ticket);
+            }
+            dispatch();
+        }
+
+        private void release(Ticket<?> ticket) {
+            running--;
+            runningByLane.merge(ticket.priority, -1, Integer::sum);
+        }
+
+        synchronized String describe() {
+            StringBuilder summary = new StringBuilder(String.format("%-12s plazas %d/%d", name, running,
+                    capacityOf(name)));
+            for (Priority priority : Priority.values()) {
+                summary.append(String.format(", %s en curso %d en cola %d", priority.name().toLowerCase(),
+                        runningByLane.get(priority), queues.get(priority).size()));
+            }
+            return summary.append(System.lineSeparator()).toString();
+        }
+    }
+}
@@ -4,8 +4,7 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -14,7 +13,7 @@ import java.util.concurrent.TimeUnit;
  */
 public class ResponseCache {
     private final Map<String, CacheEntry> cacheMap;
-    private final ScheduledExecutorService cleanupExecutor;
+    private final ScheduledFuture<?> cleanupTask;
     private final long defaultTTL;
     private final int maxSize;
 
@@ -28,8 +27,7 @@ public class ResponseCache {
             }
         };
 
-        this.cleanupExecutor = Executors.newSingleThreadScheduledExecutor();
-        scheduleCleanup();
+        this.cleanupTask = scheduleCleanup();
     }
 
     /**
@@ -81,8 +79,8 @@ public class ResponseCache {
      * Programa la limpieza periódica del caché
      * Ejecuta la tarea de limpieza cada TTL/2 milisegundos
      */
-    private void scheduleCleanup() {
-        cleanupExecutor.scheduleAtFixedRate(() -> {
+    private ScheduledFuture<?> scheduleCleanup() {
+        return TaskExecutor.getInstance().group("cache-cleanup").scheduleAtFixedRate(() -> {
             try {
                 cleanup();
             } catch (Exception e) {
@@ -115,18 +113,10 @@ public class ResponseCache {
     }
 
     /**
-     * Apaga el ejecutor de limpieza
+     * Detiene la limpieza periódica
      */
     public void shutdown() {
-        cleanupExecutor.shutdown();
-        try {
-            if (!cleanupExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
-                cleanupExecutor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            cleanupExecutor.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
+        cleanupTask.cancel(false);
     }
 
     /**
@@ -0,0 +1,258 @@
+package es.furynocturntv.mcreator.deepseek.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import es.furynocturntv.mcreator.deepseek.api.ApiException;
+import es.furynocturntv.mcreator.deepseek.api.CircuitOpenException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Política de reintentos para errores transitorios (429, 5xx, conexiones cortadas).
+ *
+ * Usa backoff exponencial con jitter completo, respeta el Retry-After del servidor y
+ * solo repite solicitudes idempotentes. Un presupuesto global limita los reintentos a
+ * una fracción de las solicitudes para no agravar una caída de la API.
+ */
+public class RetryPolicy {
+    private static final long BASE_DELAY_MS = 500;
+    private static final long MAX_DELAY_MS = 30_000;
+    private static final double BUDGET_RATIO = 0.2; // Un reintento por cada cinco solicitudes
+    private static final double BUDGET_MAX = 10;
+
+    private final IntSupplier maxRetries;
+    private final TaskExecutor.TaskGroup tasks = TaskExecutor.getInstance().group("retry");
+    private final Metrics metrics = new Metrics();
+    private double budget = BUDGET_MAX;
+
+    /**
+     * @param maxRetries Número máximo de reintentos por solicitud (se consulta en cada una)
+     */
+    public RetryPolicy(IntSupplier maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Ejecuta una operación asíncrona reintentándola si falla de forma transitoria
+     * @param attempt Lanza un intento nuevo cada vez que se invoca
+     * @param idempotent Indica si en este momento es seguro repetir la operación
+     *                   (p. ej. deja de serlo en cuanto se ha mostrado texto en streaming)
+     * @return Future con el resultado del primer intento exitoso; cancelarlo detiene los reintentos
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> attempt, BooleanSupplier idempotent) {
+        depositBudget();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        runAttempt(attempt, idempotent, result, 1);
+        return result;
+    }
+
+    private <T> void runAttempt(Supplier<CompletableFuture<T>> attempt, BooleanSupplier idempotent,
+                                CompletableFuture<T> result, int attemptNumber) {
+        if (result.isDone()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<T> current;
+        try {
+            current = attempt.get();
+        } catch (Throwable t) {
+            current = CompletableFuture.failedFuture(t);
+        }
+        Futures.propagateCancel(result, current);
+
+        current.whenComplete((value, error) -> {
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            if (error == null) {
+                metrics.record(attemptNumber, "success", elapsedMs);
+                result.complete(value);
+                return;
+            }
+
+            Throwable cause = Futures.unwrap(error);
+            metrics.record(attemptNumber, outcomeOf(cause), elapsedMs);
+
+            if (result.isDone() || !shouldRetry(cause, attemptNumber, idempotent)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+
+            long delay = delayFor(cause, attemptNumber);
+            PluginLogger.log(String.format("Reintento %d tras %s (espera %d ms)",
+                    attemptNumber, outcomeOf(cause), delay), PluginLogger.Level.DEBUG);
+
+            ScheduledFuture<?> next = tasks.schedule(
+                    () -> runAttempt(attempt, idempotent, result, attemptNumber + 1),
+                    delay, TimeUnit.MILLISECONDS);
+            result.whenComplete((ignored, ignoredError) -> {
+                if (result.isCancelled()) {
+                    next.cancel(false);
+                }
+            });
+        });
+    }
+
+    private boolean shouldRetry(Throwable cause, int attemptNumber, BooleanSupplier idempotent) {
+        if (attemptNumber > maxRetries.getAsInt() || !isRetryable(cause) || !idempotent.getAsBoolean()) {
+            return false;
+        }
+
+        // No merece la pena esperar más de lo que toleraría el usuario
+        if (cause instanceof ApiException && ((ApiException) cause).getRetryAfterMillis() > MAX_DELAY_MS) {
+            return false;
+        }
+
+        if (!withdrawBudget()) {
+            metrics.budgetExhausted.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isRetryable(Throwable cause) {
+        // Con el circuito abierto reintentar solo volvería a fallar
+        if (cause instanceof CircuitOpenException) {
+            return false;
+        }
+        if (cause instanceof ApiException) {
+            return ((ApiException) cause).isTransient();
+        }
+        // Solo fallos de transporte: conexiones rechazadas o reseteadas, timeouts y DNS. Una
+        // respuesta 200 mal formada (JsonProcessingException, "Malformed API response") ya se
+        // facturó y repetirla volvería a cobrar los tokens
+        return isTransportFailure(cause);
+    }
+
+    private static boolean isTransportFailure(Throwable cause) {
+        if (cause instanceof SocketException || cause instanceof InterruptedIOException
+                || cause instanceof UnknownHostException) {
+            return true;
+        }
+        // OkHttp informa de una conexión cerrada antes de la respuesta como IOException con causa EOFException
+        return cause instanceof IOException && !(cause instanceof JsonProcessingException)
+                && cause.getCause() instanceof EOFException;
+    }
+
+    /**
+     * Backoff exponencial con jitter completo, salvo que el servidor indique la espera
+     */
+    private long delayFor(Throwable cause, int attemptNumber) {
+        if (cause instanceof ApiException && ((ApiException) cause).getRetryAfterMillis() >= 0) {
+            return ((ApiException) cause).getRetryAfterMillis();
+        }
+        long ceiling = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(attemptNumber - 1, 16));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static String outcomeOf(Throwable cause) {
+        if (cause instanceof ApiException) {
+            return "http_" + ((ApiException) cause).getStatusCode();
+        }
+        return cause.getClass().getSimpleName();
+    }
+
+    private synchronized void depositBudget() {
+        budget = Math.min(BUDGET_MAX, budget + BUDGET_RATIO);
+    }
+
+    private synchronized boolean withdrawBudget() {
+        if (budget >= 1) {
+            budget -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Interpreta la cabecera Retry-After (segundos o fecha HTTP)
+     * @return Espera en milisegundos, o -1 si la cabecera no existe o no es válida
+     */
+    public static long parseRetryAfter(String header) {
+        if (header == null || header.isBlank()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(header.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+            } catch (DateTimeParseException ignored) {
+                return -1;
+            }
+        }
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Métricas por intento: cuántos intentos se hicieron, con qué resultado y cuánto tardaron
+     */
+    public static class Metrics {
+        private final Map<String, AtomicLong> outcomes = new ConcurrentHashMap<>();
+        private final AtomicLong attempts = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong recoveredByRetry = new AtomicLong();
+        private final AtomicLong totalLatencyMs = new AtomicLong();
+        private final AtomicLong budgetExhausted = new AtomicLong();
+
+        void record(int attemptNumber, String outcome, long latencyMs) {
+            attempts.incrementAndGet();
+            totalLatencyMs.addAndGet(latencyMs);
+            if (attemptNumber > 1) {
+                retries.incrementAndGet();
+                if ("success".equals(outcome)) {
+                    recoveredByRetry.incrementAndGet();
+                }
+            }
+            outcomes.computeIfAbsent(outcome, k -> new AtomicLong()).incrementAndGet();
+        }
+
+        public long getAttempts() {
+            return attempts.get();
+        }
+
+        public long getRetries() {
+            return retries.get();
+        }
+
+        public long getRecoveredByRetry() {
+            return recoveredByRetry.get();
+        }
+
+        public long getBudgetExhausted() {
+            return budgetExhausted.get();
+        }
+
+        public double getAverageAttemptLatencyMs() {
+            long count = attempts.get();
+            return count == 0 ? 0 : (double) totalLatencyMs.get() / count;
+        }
+
+        /**
+         * Número de intentos por resultado ("success", "http_429", "SocketTimeoutException"...)
+         */
+        public Map<String, Long> getOutcomes() {
+            Map<String, Long> snapshot = new TreeMap<>();
+            outcomes.forEach((outcome, count) -> snapshot.put(outcome, count.get()));
+            return snapshot;
+        }
+    }
+}
@@ -97,6 +97,162 @@ public class SettingsManager {
         preferences.setRateLimitDelay((int) delay);
     }
 
+    /**
+     * Número de solicitudes que pueden salir seguidas antes de aplicar el límite de tasa
+     */
+    public int getRateLimitBurst() {
+        return preferences.getRateLimitBurst();
+    }
+
+    public void setRateLimitBurst(int burst) {
+        preferences.setRateLimitBurst(burst);
+    }
+
+    /**
+     * Reintentos permitidos ante errores transitorios de la API
+     */
+    public int getMaxRetries() {
+        return preferences.getMaxRetries();
+    }
+
+    public void setMaxRetries(int retries) {
+        preferences.setMaxRetries(retries);
+    }
+
+    /**
+     * Si es true los prompts que no caben en la ventana del modelo se recortan por el
+     * principio en lugar de rechazarse
+     */
+    public boolean isTrimLongPromptsEnabled() {
+        return preferences.isTrimLongPromptsEnabled();
+    }
+
+    public void setTrimLongPromptsEnabled(boolean enabled) {
+        preferences.setTrimLongPromptsEnabled(enabled);
+    }
+
+    /**
+     * Tokens máximos que ocupa el historial de una conversación en cada solicitud
+     */
+    public int getContextTokenBudget() {
+        return preferences.getContextTokenBudget();
+    }
+
+    public void setContextTokenBudget(int tokens) {
+        preferences.setContextTokenBudget(tokens);
+    }
+
+    /**
+     * Si es true, las solicitudes a la API que tardan más de lo habitual en dar el primer
+     * token se lanzan también al modelo local cargado
+     */
+    public boolean isHedgingEnabled() {
+        return preferences.isHedgingEnabled();
+    }
+
+    public void setHedgingEnabled(boolean enabled) {
+        preferences.setHedgingEnabled(enabled);
+    }
+
+    /**
+     * Percentil de la latencia reciente a partir del cual se cubre una solicitud
+     */
+    public int getHedgePercentile() {
+        return preferences.getHedgePercentile();
+    }
+
+    public void setHedgePercentile(int percentile) {
+        preferences.setHedgePercentile(percentile);
+    }
+
+    /**
+     * Solicitudes simultáneas a la API; una plaza queda reservada para el chat interactivo
+     */
+    public int getMaxConcurrentRequests() {
+        return preferences.getMaxConcurrentRequests();
+    }
+
+    public void setMaxConcurrentRequests(int requests) {
+        preferences.setMaxConcurrentRequests(requests);
+    }
+
+    /**
+     * URL base de una API compatible con OpenAI que sustituye a la de DeepSeek; vacía para usar la oficial
+     */
+    public String getApiBaseUrl() {
+        return preferences.getApiBaseUrl();
+    }
+
+    public void setApiBaseUrl(String baseUrl) {
+        preferences.setApiBaseUrl(baseUrl);
+    }
+
+    /**
+     * Procesos llama.cpp que pueden servir a la vez un mismo modelo local
+     */
+    public int getLocalReplicas() {
+        return preferences.getLocalReplicas();
+    }
+
+    public void setLocalReplicas(int replicas) {
+        preferences.setLocalReplicas(replicas);
+    }
+
+    /**
+     * Memoria total para los servidores locales, en MB; 0 para usar el 75 % de la RAM
+     */
+    public int getLocalMemoryBudgetMb() {
+        return preferences.getLocalMemoryBudgetMb();
+    }
+
+    public void setLocalMemoryBudgetMb(int megabytes) {
+        preferences.setLocalMemoryBudgetMb(megabytes);
+    }
+
+    /**
+     * Hilos de CPU para todos los servidores locales; 0 para uno por núcleo físico
+     */
+    public int getLocalCpuThreads() {
+        return preferences.getLocalCpuThreads();
+    }
+
+    public void setLocalCpuThreads(int threads) {
+        preferences.setLocalCpuThreads(threads);
+    }
+
+    /**
+     * Minutos sin uso tras los que se descarga un modelo local; 0 para no descargarlo nunca
+     */
+    public int getLocalIdleUnloadMinutes() {
+        return preferences.getLocalIdleUnloadMinutes();
+    }
+
+    public void setLocalIdleUnloadMinutes(int minutes) {
+        preferences.setLocalIdleUnloadMinutes(minutes);
+    }
+
+    /**
+     * Conversaciones que cada servidor llama.cpp mantiene en caché a la vez (--parallel)
+     */
+    public int getLocalParallelSlots() {
+        return preferences.getLocalParallelSlots();
+    }
+
+    public void setLocalParallelSlots(int slots) {
+        preferences.setLocalParallelSlots(slots);
+    }
+
+    /**
+     * Tiempo máximo de espera para una generación local, en segundos
+     */
+    public long getLocalModelTimeout() {
+        return preferences.getLocalModelTimeout();
+    }
+
+    public void setLocalModelTimeout(long seconds) {
+        preferences.setLocalModelTimeout((int) seconds);
+    }
+
     public ResponseCache getResponseCache() {
         return responseCache;
     }
@@ -0,0 +1,220 @@
+package es.furynocturntv.mcreator.deepseek.utils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Modelo de ejecución común de todo el trabajo en segundo plano del plugin.
+ *
+ * Las tareas se ejecutan en hilos virtuales (uno por tarea), de modo que miles de
+ * solicitudes esperando E/S apenas cuestan memoria y el número de hilos de plataforma
+ * no crece con la carga. Un único hilo planificador se encarga de todos los retardos y
+ * tareas periódicas, y solo despacha: el trabajo real siempre corre en un hilo virtual.
+ *
+ * Cada componente usa un grupo con nombre que registra sus métricas.
+ * Implementa un patrón Singleton para acceso global
+ */
+public class TaskExecutor {
+    private static TaskExecutor instance;
+
+    private final ExecutorService virtualThreads;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, TaskGroup> groups = new ConcurrentHashMap<>();
+
+    private TaskExecutor() {
+        this.virtualThreads = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("deepseek-task-", 0).factory());
+
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "deepseek-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Las esperas canceladas (p. ej. permisos devueltos) no deben quedarse en la cola
+        timer.setRemoveOnCancelPolicy(true);
+        this.scheduler = timer;
+    }
+
+    public static synchronized TaskExecutor getInstance() {
+        if (instance == null) {
+            instance = new TaskExecutor();
+        }
+        return instance;
+    }
+
+    /**
+     * Obtiene (o crea) el grupo de tareas con el nombre indicado
+     */
+    public TaskGroup group(String name) {
+        return groups.computeIfAbsent(name, TaskGroup::new);
+    }
+
+    /**
+     * Métricas de todos los grupos ordenadas por nombre
+     */
+    public Map<String, TaskGroup> getGroups() {
+        return new TreeMap<>(groups);
+    }
+
+    /**
+     * Resumen legible de las métricas de cada grupo
+     */
+    public String describe() {
+        StringBuilder summary = new StringBuilder();
+        getGroups().forEach((name, group) -> summary.append(String.format(
+                "%-18s en curso %d, completadas %d, fallidas %d, media %.1f ms%n",
+                name, group.getRunning(), group.getCompleted(), group.getFailed(),
+                group.getAverageDurationMillis())));
+        return summary.toString();
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        virtualThreads.shutdownNow();
+    }
+
+    /**
+     * Grupo de tareas con nombre. Es un Executor, por lo que sirve directamente para
+     * CompletableFuture.runAsync/supplyAsync. Las tareas se ejecutan en hilos virtuales
+     * renombrados con el nombre del grupo para que aparezcan identificadas en los volcados.
+     */
+    public final class TaskGroup implements Executor {
+        private final String name;
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong running = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private TaskGroup(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            submitted.incrementAndGet();
+            virtualThreads.execute(() -> run(task));
+        }
+
+        /**
+         * Ejecuta la tarea tras el retardo indicado
+         */
+        public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+            return scheduler.schedule(() -> execute(task), delay, unit);
+        }
+
+        /**
+         * Ejecuta la tarea periódicamente. Como el planificador solo despacha, una ejecución
+         * lenta no retrasa al resto de tareas programadas del plugin
+         */
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+            return scheduler.scheduleAtFixedRate(() -> execute(task), initialDelay, period, unit);
+        }
+
+        /**
+         * Vista ExecutorService del grupo para APIs que lo exigen (p. ej. el Dispatcher de OkHttp).
+         * Apagarla solo rechaza tareas nuevas del grupo; los hilos virtuales son compartidos.
+         */
+        public ExecutorService asExecutorService() {
+            TaskGroup group = this;
+            return new AbstractExecutorService() {
+                private volatile boolean shutdown;
+
+                @Override
+                public void execute(Runnable task) {
+                    if (shutdown) {
+                        throw new RejectedExecutionException("Task group " + name + " is shut down");
+                    }
+                    group.execute(task);
+                }
+
+                @Override
+                public void shutdown() {
+                    shutdown = true;
+                }
+
+                @Override
+                public List<Runnable> shutdownNow() {
+                    shutdown = true;
+                    return List.of();
+                }
+
+                @Override
+                public boolean isShutdown() {
+                    return shutdown;
+                }
+
+                @Override
+                public boolean isTerminated() {
+                    return shutdown && group.getRunning() == 0;
+                }
+
+                @Override
+                public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+                    long deadline = System.nanoTime() + unit.toNanos(timeout);
+                    while (!isTerminated()) {
+                        if (System.nanoTime() >= deadline) {
+                            return false;
+                        }
+                        Thread.sleep(10);
+                    }
+                    return true;
+                }
+            };
+        }
+
+        private void run(Runnable task) {
+            Thread.currentThread().setName("deepseek-" + name);
+            running.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                task.run();
+                completed.incrementAndGet();
+            } catch (Throwable t) {
+                failed.incrementAndGet();
+                PluginLogger.log("Tarea fallida en " + name + ": " + t, PluginLogger.Level.WARN);
+                throw t;
+            } finally {
+                totalNanos.addAndGet(System.nanoTime() - start);
+                running.decrementAndGet();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSubmitted() {
+            return submitted.get();
+        }
+
+        public long getRunning() {
+            return running.get();
+        }
+
+        public long getCompleted() {
+            return completed.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public double getAverageDurationMillis() {
+            long finished = completed.get() + failed.get();
+            return finished == 0 ? 0 : totalNanos.get() / 1_000_000.0 / finished;
+        }
+    }
+}